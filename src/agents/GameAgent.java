@@ -5,6 +5,10 @@ import core.player.AbstractPlayer;
 /**
  * General Agent properties and methods that we want in every agent.
  * 
+ * The agents only search inside act(). The copies of the forward model share
+ * the collision effects with the real game, which the framework advances
+ * between two calls, so a search can't keep running in the background.
+ * 
  * @author Benjamin Ellenberger
  *
  */
@@ -16,4 +20,19 @@ public abstract class GameAgent extends AbstractPlayer {
 	 */
 	public abstract void clearMemory();
 
+	/**
+	 * Frees about the given share of the memory the agent could do without,
+	 * the least promising parts of its search first. Called by the
+	 * {@link agents.misc.MemoryGovernor} before the heap runs out. Agents
+	 * that can't shed gradually clear their memory at the full share.
+	 * 
+	 * @param share
+	 *            in (0, 1]
+	 */
+	public void shedMemory(double share) {
+		if (share >= 1) {
+			clearMemory();
+		}
+	}
+
 }
@@ -3,15 +3,16 @@ package agents.hbfs;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Stack;
 import java.util.TreeSet;
 
 import agents.GameAgent;
-import agents.misc.ObservationTools;
+import agents.mcts.SafeActionFilter;
+import agents.misc.AgentContext;
+import agents.misc.GridAnalyzer;
+import agents.misc.SafeActions;
+import agents.misc.TimeBudget;
 import bladeRunner.Agent;
 import core.game.StateObservation;
 import ontology.Types;
@@ -69,16 +70,14 @@ public class HBFSAgent extends GameAgent {
 
 	
 	// Values are set in the constructor.
-	public static double wLoad = Double.NaN; //0; //-2; // -4
-	public static double wPosition = Double.NaN; //
-	public static double wTileDiversity = Double.NaN; //-3; // -2
-	public static double wEvents = Double.NaN; //-0.01;
-	public static double wDepth = Double.NaN; //1;
-	public static double wTransforms = Double.NaN; //-2;
-	public static double wGamescore = Double.NaN; //-0.1;
-
-	public static final int INITIALIZATION_REMTIME = 25;
-	public static final int ACTION_REMTIME = 10;
+	public double wLoad = Double.NaN; //0; //-2; // -4
+	public double wPosition = Double.NaN; //
+	public double wTileDiversity = Double.NaN; //-3; // -2
+	public double wEvents = Double.NaN; //-0.01;
+	public double wDepth = Double.NaN; //1;
+	public double wTransforms = Double.NaN; //-2;
+	public double wGamescore = Double.NaN; //-0.1;
+
 	public static final int INITIALIZATION_ITEMS_PER_ROUND = 1;
 	public static final int ACTION_ITEMS_PER_ROUND = 1;
 	public static final boolean IS_VERY_VERBOSE = false;
@@ -89,17 +88,15 @@ public class HBFSAgent extends GameAgent {
 	public static final int MAX_TICKS = 1750;
 	public static final int MAX_TICKS_2nd_TIMEOUT = 1925;
 	
-	public static int NUM_ACTIONS;
-	public static Types.ACTIONS[] ACTIONS;
-	public static int rootLoad = -1;
-	public static HashMap<Integer, Integer> rootObservationList = null;
-	public static double correspondingScore = Double.NEGATIVE_INFINITY;
-	public static double maxScoreDifference = Double.NEGATIVE_INFINITY;
-	public static int compareCalls = 0;
-	public static int equalCalls = 0;
-	public static int hashCollisions = 0;
-	public static int hashesEqual = 0;
-	public static List<Integer> hashList = new LinkedList<Integer>();
+	public final int NUM_ACTIONS;
+	public final Types.ACTIONS[] ACTIONS;
+	public int rootLoad = -1;
+	/** compares the nodes with the root, see HBFSNode.scoreNode */
+	public final GridAnalyzer analyzer = new GridAnalyzer();
+	public double correspondingScore = Double.NEGATIVE_INFINITY;
+	public double maxScoreDifference = Double.NEGATIVE_INFINITY;
+	public int compareCalls = 0;
+	public int equalCalls = 0;
 
 	public int controllerState = STATE_PLANNING;
 	public Stack<Types.ACTIONS> actionSequence = null;
@@ -115,14 +112,39 @@ public class HBFSAgent extends GameAgent {
 	public int turnAroundSpeed = -1;
 	public int pipeEmptyEvents = 0;
 	public boolean hasTimedOut = false;
-	private static int currentGameTick;
+	private int currentGameTick;
+
+	/**
+	 * If a full garbage collection is run when the planning starts. Turn it
+	 * off if another search runs at the same time.
+	 */
+	public boolean callsGarbageCollector = true;
+
+	// if the plan reaches a win, otherwise it came from a timeout
+	private boolean isPlanSolved = false;
+
+	/**
+	 * The game we are playing.
+	 */
+	public final AgentContext context;
 	
 
 	private void initializeHbfs(StateObservation so) {
+		initializeHbfs(so, callsGarbageCollector);
+	}
+
+	/**
+	 * @param collectsGarbage
+	 *            if a full garbage collection is run first, which takes the
+	 *            time of the tick
+	 */
+	private void initializeHbfs(StateObservation so, boolean collectsGarbage) {
 		if (Agent.isVerbose) {
 			System.out.println("HBFS::##Initializing HBFS...");
 		}
-		System.gc();
+		if (collectsGarbage) {
+			System.gc();
+		}
 
 		// testForwardModel(so);
 		controllerState = STATE_OTHER;
@@ -136,16 +158,16 @@ public class HBFSAgent extends GameAgent {
 		stats_nonUseful = 0;
 		turnAroundSpeed = -1;
 		pipeEmptyEvents = 0;
-		HBFSAgent.maxScoreDifference = Double.NEGATIVE_INFINITY;
-		HBFSAgent.correspondingScore = Double.NEGATIVE_INFINITY;
-		HBFSAgent.rootLoad = -1;
-		HBFSAgent.equalCalls = 0;
-		HBFSAgent.compareCalls = 0;
-
-		hbfsRoot = new HBFSNode(so, null, null, 0);
-		rootObservationList = ObservationTools.getObsList(so);
+		maxScoreDifference = Double.NEGATIVE_INFINITY;
+		correspondingScore = Double.NEGATIVE_INFINITY;
+		rootLoad = -1;
+		equalCalls = 0;
+		compareCalls = 0;
+
+		hbfsRoot = new HBFSNode(this, so, null, null, 0);
+		analyzer.setRoot(so);
 		
-		HBFSNode.setRootLoad(hbfsRoot.getLoad());
+		rootLoad = hbfsRoot.getLoad();
 		// HBFSNode.displayStateObservation(so);
 
 		if (hbfsRoot.so.isGameOver()) {
@@ -158,6 +180,25 @@ public class HBFSAgent extends GameAgent {
 		controllerState = STATE_PLANNING;
 	}
 
+	/**
+	 * Adds the ACTION_NIL states the game classifier advanced anyway to the
+	 * pipe, so we don't pay for them twice. The list is left to MCTS, the
+	 * agent clears it.
+	 */
+	private void addProbeStates() {
+		HBFSNode previous = hbfsRoot;
+		for (StateObservation probeState : context.probeStates) {
+			if (probeState.isGameOver()) {
+				break;
+			}
+			HBFSNode m = new HBFSNode(this, probeState, Types.ACTIONS.ACTION_NIL, previous, previous.depth + 1);
+			if (visited.add(m.hashCode())) {
+				pipe.add(m);
+			}
+			previous = m;
+		}
+	}
+
 	public void testForwardModel(StateObservation so) {
 		System.out.println("HBFS::##Testing Forward Model...");
 		
@@ -201,7 +242,6 @@ public class HBFSAgent extends GameAgent {
 		pipe.clear();
 		visited.clear();
 		hbfsRoot = null;
-		rootObservationList = null;
 		hbfsSolution = null;
 		actionSequence = null;
 		pipe = null;
@@ -210,7 +250,7 @@ public class HBFSAgent extends GameAgent {
 	}
 
 	@SuppressWarnings("unused")
-	private boolean performHbfs(ElapsedCpuTimer elapsedTimer, int remTime) {
+	private boolean performHbfs(ElapsedCpuTimer elapsedTimer, double reserveMillis) {
 
 		if (pipe.isEmpty()) {
 			controllerState = STATE_OTHER;
@@ -222,18 +262,22 @@ public class HBFSAgent extends GameAgent {
 
 		HBFSNode current = pipe.remove();
 
-		for (Types.ACTIONS a : ACTIONS) {
-			StateObservation soCopy = current.so.copy();
-			soCopy.advance(a);
-
-			if (elapsedTimer.remainingTimeMillis() < remTime) { 
+		for (int i = 0; i < ACTIONS.length; i++) {
+			Types.ACTIONS a = ACTIONS[i];
+			// the callers checked the time for the first expansion, every
+			// expansion is checked once
+			if (i > 0 && !context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.HBFS_EXPANSION, reserveMillis)) {
 				pipe.add(current); // could get stuck, but usually at least one node can be fully processed.
 				break;
 			}
-			
+			long start = System.nanoTime();
+
+			StateObservation soCopy = current.so.copy();
+			soCopy.advance(a);
+
 			if (soCopy.isGameOver()) {
 				if (soCopy.getGameWinner() == Types.WINNER.PLAYER_WINS) {
-					hbfsSolution = new HBFSNode(soCopy, a, current,
+					hbfsSolution = new HBFSNode(this, soCopy, a, current,
 							current.depth + 1);
 					hbfsSolution.getEventScore();
 					return true;
@@ -253,7 +297,7 @@ public class HBFSAgent extends GameAgent {
 					// System.gc();
 				}
 
-				HBFSNode m = new HBFSNode(soCopy, a, current, current.depth + 1);
+				HBFSNode m = new HBFSNode(this, soCopy, a, current, current.depth + 1);
 								
 				if (visited.add(m.hashCode())) {
 					pipe.add(m);
@@ -264,6 +308,7 @@ public class HBFSAgent extends GameAgent {
 
 				m = null;
 			}
+			context.timeBudget.record(TimeBudget.HBFS_EXPANSION, start);
 		}
 
 		if (pipe.isEmpty()) {
@@ -275,7 +320,7 @@ public class HBFSAgent extends GameAgent {
 			for (Types.ACTIONS a : ACTIONS) {
 				StateObservation soCopy = current.so.copy();
 				soCopy.advance(a);
-				HBFSNode m = new HBFSNode(soCopy, a, current, current.depth + 1);
+				HBFSNode m = new HBFSNode(this, soCopy, a, current, current.depth + 1);
 				visited.add(m.hashCode());
 				pipe.add(m);
 			}
@@ -294,15 +339,16 @@ public class HBFSAgent extends GameAgent {
 
 	private void resetPipe() {
 		Stack<HBFSNode> backup = new Stack<HBFSNode>();
-		for (int k = 0; k < CARRY_OVER_PIPE_LENGTH_HEAD; k++) {
+		for (int k = 0; k < CARRY_OVER_PIPE_LENGTH_HEAD && !pipe.isEmpty(); k++) {
 			backup.push(pipe.remove());	
 		}
 		if (CARRY_OVER_PIPE_LENGTH_BODY > 0) {
-			int nth = pipe.size() / CARRY_OVER_PIPE_LENGTH_BODY;
+			// (short pipes are carried over completely)
+			int nth = Math.max(1, pipe.size() / CARRY_OVER_PIPE_LENGTH_BODY);
 			int n = 0;
 			for (HBFSNode node : pipe) {
 				n++;
-				if (n % nth == 1) {
+				if ((n - 1) % nth == 0) {
 					backup.push(node);
 				}
 
@@ -322,10 +368,12 @@ public class HBFSAgent extends GameAgent {
 	 *            state observation of the current game.
 	 * @param elapsedTimer
 	 *            Timer for the controller creation.
+	 * @param context
+	 *            the game we are playing.
 	 */
-	public HBFSAgent(StateObservation so, ElapsedCpuTimer elapsedTimer) {
-		
+	public HBFSAgent(StateObservation so, ElapsedCpuTimer elapsedTimer, AgentContext context) {
 		
+		this.context = context;
 		wLoad = 0; //-2; // -4
 		wPosition = 0;
 		wTileDiversity = -3; // -2
@@ -334,24 +382,22 @@ public class HBFSAgent extends GameAgent {
 		wTransforms = -2;
 		wGamescore = -0.01;
 		
-		// Get the actions in a static array.
+		// Get the actions of the game.
 		if (Agent.isVerbose) {
 			System.out.println("HBFS::##Creating HBFSAgent...");
 		}
-		ArrayList<Types.ACTIONS> act = so.getAvailableActions();
-		ACTIONS = new Types.ACTIONS[act.size()];
-		for (int i = 0; i < ACTIONS.length; ++i) {
-			ACTIONS[i] = act.get(i);
-		}
+		ACTIONS = context.actions;
 		NUM_ACTIONS = ACTIONS.length;
 
 		initializeHbfs(so);
+		addProbeStates();
 
 		boolean hasTerminated = false;
 		while (!hasTerminated
-				&& elapsedTimer.remainingTimeMillis() > INITIALIZATION_REMTIME
+				&& context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.HBFS_EXPANSION,
+						TimeBudget.INITIALIZATION_RESERVE_MILLIS)
 				&& controllerState == STATE_PLANNING) {
-			hasTerminated = performHbfs(elapsedTimer, INITIALIZATION_REMTIME);
+			hasTerminated = performHbfs(elapsedTimer, TimeBudget.INITIALIZATION_RESERVE_MILLIS);
 		}
 		if (controllerState != STATE_PLANNING) {
 			if (Agent.isVerbose) {
@@ -381,8 +427,8 @@ public class HBFSAgent extends GameAgent {
 							node.depth, node.so.getEventsHistory().size(),
 							node.getEventScore(), node.getTileDiversityScore(),
 							node.getGameScore(), node.getTransformScore(), node.getScore(),
-							HBFSAgent.maxScoreDifference,
-							HBFSAgent.correspondingScore, turnAroundSpeed);
+							maxScoreDifference,
+							correspondingScore, turnAroundSpeed);
 		}
 	}
 
@@ -419,6 +465,20 @@ public class HBFSAgent extends GameAgent {
 							+ actionSequence.peek());
 				}
 			}
+			// the plan is open loop, in stochastic games it can run into death,
+			// and so can a plan that wasn't searched to the end
+			if (!isPlanSolved || context.gameFeatures == null || !context.gameFeatures.deterministic) {
+				SafeActions safeActions = SafeActionFilter.evaluate(so, context, elapsedTimer,
+						TimeBudget.HBFS_EXPANSION);
+				if (!safeActions.isSafe(actionSequence.peek()) && safeActions.hasSafeAction()) {
+					if (Agent.isVerbose) {
+						System.out.println("\nHBFS::#Next action of the plan is lethal. Restarting PLANNING Phase...");
+					}
+					// (a full collection would miss the deadline of the tick)
+					initializeHbfs(so, false);
+					return Types.ACTIONS.ACTION_NIL;
+				}
+			}
 			return actionSequence.pop();
 
 		case STATE_PLANNING:
@@ -431,14 +491,15 @@ public class HBFSAgent extends GameAgent {
 			boolean hasTerminated = false;
 			turnAroundSpeed = 0;
 			while (!hasTerminated
-					&& elapsedTimer.remainingTimeMillis() > ACTION_REMTIME
+					&& context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.HBFS_EXPANSION)
 					&& controllerState == STATE_PLANNING) {
-				hasTerminated = performHbfs(elapsedTimer, ACTION_REMTIME);
+				hasTerminated = performHbfs(elapsedTimer, 0);
 				turnAroundSpeed += 1;
 			}
 			if (hasTerminated) {
 				controllerState = STATE_ACTING;
 				actionSequence = hbfsSolution.getActionSequence();
+				isPlanSolved = true;
 				if (Agent.isVerbose) {
 					System.out.println("\nHBFS::#Solution Found. ACTING Phase...");
 					System.out.println("Best Sequence Length: "
@@ -449,6 +510,7 @@ public class HBFSAgent extends GameAgent {
 				controllerState = STATE_ACTING;
 				hbfsSolution = pipe.peek();
 				actionSequence = hbfsSolution.getActionSequence();
+				isPlanSolved = false;
 				if (Agent.isVerbose) {
 					System.out.println("\nHBFS::#Timeout! ACTING Phase...");
 					System.out.println("HBFS::Timeout Sequence Length: "
@@ -464,7 +526,8 @@ public class HBFSAgent extends GameAgent {
 				controllerState = STATE_ACTING;
 				actionSequence = new Stack<Types.ACTIONS>();
 				actionSequence
-						.push(ACTIONS[(int) Math.floor(Math.random() * 4)]);
+						.push(ACTIONS[context.random.nextInt(4)]);
+				isPlanSolved = false;
 				if (Agent.isVerbose) {
 					System.out.println("\nHBFS::#Pipe Constantly Empty! Performing some move. ACTING Phase...");
 					System.out.println("HBFS::Random Sequence Length: " + actionSequence.size());
@@ -487,6 +550,62 @@ public class HBFSAgent extends GameAgent {
 		}
 	}
 
+	/**
+	 * Drops the current plan or search and plans from a new state.
+	 */
+	public void restart(StateObservation so) {
+		actionSequence = null;
+		initializeHbfs(so);
+	}
+
+	/**
+	 * @return if the state looks like the one the planning started from
+	 */
+	public boolean isRootState(StateObservation so) {
+		return hbfsRoot != null && new HBFSNode(this, so, null, null, 0).hashCode() == hbfsRoot.hashCode();
+	}
+
+	/**
+	 * @return if HBFS is acting and has actions left to play
+	 */
+	public boolean hasPlan() {
+		return controllerState == STATE_ACTING && actionSequence != null && !actionSequence.isEmpty();
+	}
+
+	/**
+	 * @return if HBFS ran into its timeout or constantly empty pipes, i.e. it
+	 *         is not going to find a solution
+	 */
+	public boolean hasGivenUp() {
+		return hasTimedOut || pipeEmptyEvents > 1;
+	}
+
+	/**
+	 * Drops the worst share of the pipe, the rejection set is only cleared
+	 * with everything.
+	 */
+	@Override
+	public void shedMemory(double share) {
+		if (pipe == null) {
+			// nothing searched yet
+			return;
+		}
+		if (share >= 1) {
+			clearMemory();
+			return;
+		}
+		int keep = (int) (pipe.size() * (1 - share));
+		ArrayList<HBFSNode> best = new ArrayList<HBFSNode>(keep);
+		while (best.size() < keep && !pipe.isEmpty()) {
+			best.add(pipe.remove());
+		}
+		pipe.clear();
+		pipe.addAll(best);
+		if (Agent.isVerbose) {
+			System.out.print("Ps.");
+		}
+	}
+
 	public void clearMemory() {
 		if (Agent.isVerbose) {
 			System.out.println("\nHBFS::#Clearing Memory.");
@@ -499,12 +618,12 @@ public class HBFSAgent extends GameAgent {
 		}
 	}
 
-	public static void saveHashlist() {
+	public void saveHashlist() {
 		try {
 			FileWriter fos = new FileWriter("hashList.data");
 			PrintWriter dos = new PrintWriter(fos);
 			// loop through all your data and print it to the file
-			for (int q : hashList)
+			for (int q : context.hashList)
 			{
 				dos.println(q);
 			}
@@ -516,9 +635,9 @@ public class HBFSAgent extends GameAgent {
 		}
 	}
 	
-	public static void displayHashingDiagnostics() {
-		System.out.println("HBFS::Hashing Diagnostics: " + HBFSAgent.equalCalls + " equal calls; " + HBFSAgent.hashCollisions +"/" + HBFSAgent.hashesEqual
-				+ " hash collisions/hashes equal" + "; collision fraction: " + (double)HBFSAgent.hashCollisions/(double)HBFSAgent.hashesEqual);
+	public void displayHashingDiagnostics() {
+		System.out.println("HBFS::Hashing Diagnostics: " + context.hashCollisions +"/" + context.hashesEqual
+				+ " hash collisions/hashes equal" + "; collision fraction: " + (double)context.hashCollisions/(double)context.hashesEqual);
 	}
 
 }
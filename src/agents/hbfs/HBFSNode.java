@@ -5,7 +5,6 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
 
-import agents.misc.ObservationTools;
 import agents.misc.ObservationTools.DefaultAnalysis;
 import bladeRunner.Agent;
 import core.game.Event;
@@ -21,6 +20,7 @@ import ontology.Types.ACTIONS;
 
 public class HBFSNode implements Comparable<HBFSNode> {
 
+	public final HBFSAgent agent;
 	public StateObservation so;
 	public Types.ACTIONS causingAction;
 	public HBFSNode parent;
@@ -41,9 +41,10 @@ public class HBFSNode implements Comparable<HBFSNode> {
 	private int totalLoad = -1;
 	private int hash = -1;
 
-	public HBFSNode(StateObservation so, Types.ACTIONS causingAction,
+	public HBFSNode(HBFSAgent agent, StateObservation so, Types.ACTIONS causingAction,
 			HBFSNode parent, int depth) {
 		super();
+		this.agent = agent;
 		this.so = so;
 		this.causingAction = causingAction;
 		this.parent = parent;
@@ -62,7 +63,7 @@ public class HBFSNode implements Comparable<HBFSNode> {
 	// (see HBFSAgent)
 //	public double scoreNode(HBFSNode arg0) {
 //
-//		loadScore = HBFSAgent.rootLoad - arg0.getLoad();
+//		loadScore = agent.rootLoad - arg0.getLoad();
 //		Set<IntPair> typeIds = new TreeSet<IntPair>();
 //		eventScore = 0;
 //		for (Event ev : arg0.so.getEventsHistory()) {
@@ -73,9 +74,9 @@ public class HBFSNode implements Comparable<HBFSNode> {
 //
 //		double positionScore = 0;
 //
-//		return HBFSAgent.wDepth * arg0.depth + HBFSAgent.wEvents * eventScore
-//				+ +HBFSAgent.wTileDiversity * tileDiversityScore
-//				+ HBFSAgent.wPosition * positionScore + HBFSAgent.wLoad
+//		return agent.wDepth * arg0.depth + agent.wEvents * eventScore
+//				+ +agent.wTileDiversity * tileDiversityScore
+//				+ agent.wPosition * positionScore + agent.wLoad
 //				* loadScore;
 //	}
 	
@@ -85,10 +86,9 @@ public class HBFSNode implements Comparable<HBFSNode> {
 			return 0;
 		}
 		
-		DefaultAnalysis a = ObservationTools.analyze(HBFSAgent.rootObservationList, arg0.parent.so,
-				arg0.so);
+		DefaultAnalysis a = agent.analyzer.analyze(arg0.parent.so, arg0.so);
 		
-		loadScore = Math.abs(HBFSAgent.rootLoad - arg0.getLoad());
+		loadScore = Math.abs(agent.rootLoad - arg0.getLoad());
 		Set<IntPair> typeIds = new TreeSet<IntPair>();
 		eventScore = 0;
 		for (Event ev : arg0.so.getEventsHistory()) {
@@ -103,10 +103,10 @@ public class HBFSNode implements Comparable<HBFSNode> {
 		transformScore = a.tileCreations + a.tileDestructions;
 		gameScore = so.getGameScore();
 		
-		return HBFSAgent.wDepth * arg0.depth + HBFSAgent.wEvents * eventScore
-				+ +HBFSAgent.wTileDiversity * tileDiversityScore
-				+ HBFSAgent.wPosition * positionScore + HBFSAgent.wLoad
-				* loadScore + HBFSAgent.wTransforms * transformScore + HBFSAgent.wGamescore;
+		return agent.wDepth * arg0.depth + agent.wEvents * eventScore
+				+ +agent.wTileDiversity * tileDiversityScore
+				+ agent.wPosition * positionScore + agent.wLoad
+				* loadScore + agent.wTransforms * transformScore + agent.wGamescore;
 		
 	}
 
@@ -148,7 +148,7 @@ public class HBFSNode implements Comparable<HBFSNode> {
 		
 		//hash = hash % HBFSAgent.prime;
 		
-		if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashList.add(hash);
+		if (HBFSAgent.TRACK_HASHING) agent.context.hashList.add(hash);
 		
 		return hash;
 	}
@@ -158,20 +158,20 @@ public class HBFSNode implements Comparable<HBFSNode> {
 			return score;
 		}
 		score = scoreNode(this);
-		if (HBFSAgent.maxScoreDifference < this.depth - this.score) {
-			HBFSAgent.maxScoreDifference = Math.max(this.depth - this.score,
-					HBFSAgent.maxScoreDifference);
-			HBFSAgent.correspondingScore = this.score;
+		if (agent.maxScoreDifference < this.depth - this.score) {
+			agent.maxScoreDifference = Math.max(this.depth - this.score,
+					agent.maxScoreDifference);
+			agent.correspondingScore = this.score;
 		}
 		return score;
 	}
 
 	public double updateScore() {
 		score = scoreNode(this);
-		if (HBFSAgent.maxScoreDifference < this.depth - this.score) {
-			HBFSAgent.maxScoreDifference = Math.max(this.depth - this.score,
-					HBFSAgent.maxScoreDifference);
-			HBFSAgent.correspondingScore = this.score;
+		if (agent.maxScoreDifference < this.depth - this.score) {
+			agent.maxScoreDifference = Math.max(this.depth - this.score,
+					agent.maxScoreDifference);
+			agent.correspondingScore = this.score;
 		}
 		return score;
 	}
@@ -230,29 +230,29 @@ public class HBFSNode implements Comparable<HBFSNode> {
 
 	@Override
 	public boolean equals(Object obj) {
-		HBFSAgent.equalCalls++;
-		if (Agent.isVerbose && HBFSAgent.equalCalls % HBFSAgent.callReportFrequency == 1) {
+		agent.equalCalls++;
+		if (Agent.isVerbose && agent.equalCalls % HBFSAgent.callReportFrequency == 1) {
 			System.out.print(".");
 		}
 		if (hashCode() != obj.hashCode())
 			return false;
 		
-		if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashesEqual++;
+		if (HBFSAgent.TRACK_HASHING) agent.context.hashesEqual++;
 		
 		HBFSNode n = (HBFSNode) obj;
 		if (!n.so.getAvatarPosition().equals(so.getAvatarPosition())) {
-			if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashCollisions++;
+			if (HBFSAgent.TRACK_HASHING) agent.context.hashCollisions++;
 			return false;
 		}
 		if (HBFSAgent.RESPECT_AGENT_ORIENTATION) {
 			if (!n.so.getAvatarOrientation().equals(so.getAvatarOrientation())) {
-				if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashCollisions++;
+				if (HBFSAgent.TRACK_HASHING) agent.context.hashCollisions++;
 				return false;
 			}
 		}
 		if (HBFSAgent.REPSECT_AGENT_SPEED) {
 			if (n.so.getAvatarSpeed() != so.getAvatarSpeed()) {
-				if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashCollisions++;
+				if (HBFSAgent.TRACK_HASHING) agent.context.hashCollisions++;
 				return false;
 			}
 		}
@@ -263,12 +263,12 @@ public class HBFSNode implements Comparable<HBFSNode> {
 		for (int i = 0; i < grid.length; i++) {
 			for (int j = 0; j < grid[i].length; j++) {
 				if (grid[i][j].size() != ngrid[i][j].size()) {
-					if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashCollisions++;
+					if (HBFSAgent.TRACK_HASHING) agent.context.hashCollisions++;
 					return false;
 				}
 				for (int k = 1; k < grid[i][j].size(); k++) {
 					if (grid[i][j].get(k).itype != ngrid[i][j].get(k).itype) {
-						if (HBFSAgent.TRACK_HASHING) HBFSAgent.hashCollisions++;
+						if (HBFSAgent.TRACK_HASHING) agent.context.hashCollisions++;
 						return false;
 					}
 				}
@@ -287,8 +287,8 @@ public class HBFSNode implements Comparable<HBFSNode> {
 
 	public int compareTo(HBFSNode o) {
 		int rt = Double.compare(getScore(), o.getScore());
-		HBFSAgent.compareCalls++;
-		if (Agent.isVerbose && HBFSAgent.compareCalls % (2 * HBFSAgent.callReportFrequency) == 1) {
+		agent.compareCalls++;
+		if (Agent.isVerbose && agent.compareCalls % (2 * HBFSAgent.callReportFrequency) == 1) {
 			System.out.print("-");
 		}
 		return rt;
@@ -325,10 +325,6 @@ public class HBFSNode implements Comparable<HBFSNode> {
 		}
 	}
 
-	public static void setRootLoad(int load) {
-		HBFSAgent.rootLoad = load;
-	}
-
 	public static void displayStateObservation(StateObservation so) {
 		ArrayList<Observation>[][] grid = so.getObservationGrid();
 		System.out.println("HBFS::#Grid:      " + grid.length + " X "
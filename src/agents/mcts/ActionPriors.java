@@ -0,0 +1,114 @@
+package agents.mcts;
+
+import java.util.ArrayList;
+
+import core.game.Observation;
+import core.game.StateObservation;
+import ontology.Types.ACTIONS;
+
+/**
+ * Learns during a game how likely each action has an effect on the avatar,
+ * from the expansions of the search. An action has an effect if it moves or
+ * turns the avatar, changes its resources or the score, spawns a sprite
+ * (e.g. a missile) or ends the game. ACTION_USE without ammo doesn't, so the
+ * search expands it last and progressive widening may never get to it.
+ *
+ * The effect is learned separately for an avatar with and without resources,
+ * since using often depends on what we carry. The priors start optimistic and
+ * follow the recent outcomes as an exponentially weighted moving average.
+ */
+public class ActionPriors {
+
+	// the resource states of the avatar
+	public static final int NO_RESOURCES = 0;
+	public static final int RESOURCES = 1;
+	public static final int RESOURCE_STATE_QTY = 2;
+
+	/** weight of a new outcome in the moving averages */
+	public static final double ALPHA = 0.05;
+
+	/** prior of an action that never has an effect, it still gets expanded */
+	public static final double MIN_PRIOR = 0.1;
+
+	private final ACTIONS[] actions;
+	private final double[][] effect;
+	private final long[][] samples;
+
+	public ActionPriors(ACTIONS[] actions) {
+		this.actions = actions;
+		effect = new double[RESOURCE_STATE_QTY][actions.length];
+		samples = new long[RESOURCE_STATE_QTY][actions.length];
+		for (int r = 0; r < RESOURCE_STATE_QTY; r++) {
+			for (int i = 0; i < actions.length; i++) {
+				effect[r][i] = 1;
+			}
+		}
+	}
+
+	/**
+	 * @return the resource state of the avatar in the state
+	 */
+	public static int resourceState(StateObservation so) {
+		return so.getAvatarResources().isEmpty() ? NO_RESOURCES : RESOURCES;
+	}
+
+	/**
+	 * @return the prior of the action (index into the actions of the context)
+	 *         in [MIN_PRIOR, 1]
+	 */
+	public double getPrior(int resourceState, int actionIdx) {
+		return MIN_PRIOR + (1 - MIN_PRIOR) * effect[resourceState][actionIdx];
+	}
+
+	/**
+	 * Learns from the expansion of an action.
+	 *
+	 * @param resourceState
+	 *            the resource state of the avatar before the action
+	 */
+	public void observe(StateObservation before, int resourceState, int actionIdx, StateObservation after) {
+		double outcome = hasEffect(before, after) ? 1 : 0;
+		effect[resourceState][actionIdx] += ALPHA * (outcome - effect[resourceState][actionIdx]);
+		samples[resourceState][actionIdx]++;
+	}
+
+	private static boolean hasEffect(StateObservation before, StateObservation after) {
+		if (after.isGameOver() || after.getGameScore() != before.getGameScore()) {
+			return true;
+		}
+		if (!after.getAvatarPosition().equals(before.getAvatarPosition())
+				|| !after.getAvatarOrientation().equals(before.getAvatarOrientation())) {
+			return true;
+		}
+		if (!after.getAvatarResources().equals(before.getAvatarResources())) {
+			return true;
+		}
+		return countSprites(after.getFromAvatarSpritesPositions()) > countSprites(before
+				.getFromAvatarSpritesPositions());
+	}
+
+	private static int countSprites(ArrayList<Observation>[] positions) {
+		int n = 0;
+		if (positions != null) {
+			for (ArrayList<Observation> sprites : positions) {
+				n += sprites.size();
+			}
+		}
+		return n;
+	}
+
+	public void printStatistics() {
+		StringBuilder sb = new StringBuilder("PRIORS::");
+		for (int i = 0; i < actions.length; i++) {
+			if (i > 0) {
+				sb.append("|");
+			}
+			sb.append(actions[i]).append(":");
+			for (int r = 0; r < RESOURCE_STATE_QTY; r++) {
+				sb.append(r > 0 ? "/" : "").append(String.format("%.2f", getPrior(r, i))).append("(")
+						.append(samples[r][i]).append(")");
+			}
+		}
+		System.out.println(sb);
+	}
+}
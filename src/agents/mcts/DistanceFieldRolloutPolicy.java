@@ -0,0 +1,87 @@
+package agents.mcts;
+
+import java.util.Random;
+
+import agents.misc.DiffusionMap;
+import core.game.StateObservation;
+import ontology.Types.ACTIONS;
+import tools.Vector2d;
+
+/**
+ * Epsilon-greedy over the {@link DiffusionMap}: mostly moves to the
+ * neighbouring cell with the highest potential, i.e. towards resources and
+ * away from enemies, and plays a random action otherwise. Actions that don't
+ * move the avatar are valued with the cell it stands on.
+ */
+public class DistanceFieldRolloutPolicy implements RolloutPolicy {
+
+	/** share of the steps with a random action */
+	public static double EPSILON = 0.25;
+
+	private final DiffusionMap diffusionMap;
+	private final int actionQty;
+	// the cell offset of each action
+	private final int[] dx;
+	private final int[] dy;
+	private final RolloutStatistics statistics = new RolloutStatistics("distanceField");
+
+	public DistanceFieldRolloutPolicy(ACTIONS[] actions, DiffusionMap diffusionMap) {
+		this.diffusionMap = diffusionMap;
+		actionQty = actions.length;
+		dx = new int[actionQty];
+		dy = new int[actionQty];
+		for (int i = 0; i < actionQty; i++) {
+			switch (actions[i]) {
+			case ACTION_LEFT:
+				dx[i] = -1;
+				break;
+			case ACTION_RIGHT:
+				dx[i] = 1;
+				break;
+			case ACTION_UP:
+				dy[i] = -1;
+				break;
+			case ACTION_DOWN:
+				dy[i] = 1;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void begin(StateObservation rollerState) {
+	}
+
+	@Override
+	public int selectAction(StateObservation rollerState, Random rnd) {
+		if (rnd.nextDouble() < EPSILON) {
+			return rnd.nextInt(actionQty);
+		}
+		Vector2d pos = rollerState.getAvatarPosition();
+		int blockSize = rollerState.getBlockSize();
+		int x = MCTSNode.floorDiv((int) (pos.x + 0.1), blockSize);
+		int y = MCTSNode.floorDiv((int) (pos.y + 0.1), blockSize);
+		int best = 0;
+		double bestValue = -Double.MAX_VALUE;
+		for (int i = 0; i < actionQty; i++) {
+			// small random numbers break the ties
+			double value = diffusionMap.getValue(x + dx[i], y + dy[i]) + rnd.nextDouble() * MCTSNode.epsilon;
+			if (value > bestValue) {
+				best = i;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public void end(double value, boolean lost) {
+	}
+
+	@Override
+	public RolloutStatistics getStatistics() {
+		return statistics;
+	}
+}
@@ -0,0 +1,85 @@
+package agents.mcts;
+
+import java.util.Random;
+
+import core.game.StateObservation;
+
+/**
+ * Last-good-reply with forgetting: remembers for every action the action that
+ * followed it in the last rollout that was better than average, and plays
+ * that reply again while it keeps working. Learns sequences like turning and
+ * then shooting. Replies of rollouts that were worse than average are
+ * forgotten.
+ */
+public class LastGoodReplyRolloutPolicy implements RolloutPolicy {
+
+	/** share of the steps with a random action even if there is a reply */
+	public static double EPSILON = 0.25;
+
+	/** weight of a new value in the average value of the rollouts */
+	public static double ALPHA = 0.05;
+
+	private final int actionQty;
+	/** reply to each action, index 0 for the first step */
+	private final int[] reply;
+	/** the actions of the current rollout, grows with the rollout depth */
+	private int[] played = new int[16];
+	private int playedQty = 0;
+	private double meanValue = 0;
+	private boolean hasMean = false;
+	private final RolloutStatistics statistics = new RolloutStatistics("lastGoodReply");
+
+	public LastGoodReplyRolloutPolicy(int actionQty) {
+		this.actionQty = actionQty;
+		reply = new int[actionQty + 1];
+		for (int i = 0; i < reply.length; i++) {
+			reply[i] = -1;
+		}
+	}
+
+	@Override
+	public void begin(StateObservation rollerState) {
+		playedQty = 0;
+	}
+
+	@Override
+	public int selectAction(StateObservation rollerState, Random rnd) {
+		int previous = (playedQty > 0) ? played[playedQty - 1] + 1 : 0;
+		int action = reply[previous];
+		if (action < 0 || rnd.nextDouble() < EPSILON) {
+			action = rnd.nextInt(actionQty);
+		}
+		if (playedQty == played.length) {
+			int[] grown = new int[played.length * 2];
+			System.arraycopy(played, 0, grown, 0, playedQty);
+			played = grown;
+		}
+		played[playedQty++] = action;
+		return action;
+	}
+
+	@Override
+	public void end(double value, boolean lost) {
+		if (playedQty == 0) {
+			return;
+		}
+		boolean good = !lost && (!hasMean || value >= meanValue);
+		for (int i = 0; i < playedQty; i++) {
+			int previous = (i > 0) ? played[i - 1] + 1 : 0;
+			if (good) {
+				reply[previous] = played[i];
+			} else if (reply[previous] == played[i]) {
+				reply[previous] = -1;
+			}
+		}
+		if (!lost) {
+			meanValue = hasMean ? meanValue + ALPHA * (value - meanValue) : value;
+			hasMean = true;
+		}
+	}
+
+	@Override
+	public RolloutStatistics getStatistics() {
+		return statistics;
+	}
+}
@@ -1,14 +1,22 @@
 package agents.mcts;
 
 import agents.GameAgent;
-import agents.misc.PersistentStorage;
+import agents.misc.DiffusionMap;
+import agents.misc.AgentContext;
+import agents.misc.GameClassifier;
+import agents.misc.ObservationFeatures;
+import agents.misc.RolloutValueCache;
+import agents.misc.TimeBudget;
 import core.game.Observation;
 import core.game.StateObservation;
 import tools.ElapsedCpuTimer;
 import tools.Vector2d;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 import ontology.Types;
@@ -25,8 +33,37 @@ public class MCTSAgent extends GameAgent {
 	 * Random generator.
 	 */
 	public Random m_rnd;
-	
-	public static Vector2d startingPos;
+
+	/**
+	 * What the actions are learned to do in this game, shared by all nodes.
+	 */
+	public final ActionPriors actionPriors;
+
+	/**
+	 * Forces a rollout policy (uniform, distanceField, noBacktrack or
+	 * lastGoodReply) instead of choosing it by the features of the game.
+	 */
+	public static final String ROLLOUT_POLICY = System.getProperty("bladerunner.rollout");
+
+	/**
+	 * Picks the actions of the rollouts in this game.
+	 */
+	public final RolloutPolicy rolloutPolicy;
+
+	/**
+	 * Recycles the nodes of the subtrees we cut off.
+	 */
+	public final NodePool nodePool = new NodePool();
+
+	/**
+	 * Scales the exploration of the search to its rollout results.
+	 */
+	public final RewardNormalizer rewardNormalizer = new RewardNormalizer();
+
+	/**
+	 * The game we are playing.
+	 */
+	public final AgentContext context;
 
 	public int nodeQty;
 	
@@ -38,23 +75,79 @@ public class MCTSAgent extends GameAgent {
 	
 	public int oldAction = KEEP_COMPLETE_OLD_TREE;
 
-	public static HashMap<Integer, PathPlanner> pathPlannerMaps;
+	/**
+	 * Share of the statistics a reused tree keeps if the real state isn't the
+	 * one the search sampled for it.
+	 */
+	public static double MISMATCH_DECAY = 0.5;
+
+	// statistics of the tree reuse
+	private int matches = 0;
+	private int mismatches = 0;
+	private int grafts = 0;
+
+	public HashMap<Integer, PathPlanner> pathPlannerMaps;
+
+	public double numberOfBlockedMovables = 0;
 	
 	/**
 	 * Creates the MCTS player with a sampleRandom generator object.
 	 * 
 	 * @param a_rnd
 	 *            sampleRandom generator object.
+	 * @param context
+	 *            the game we are playing.
 	 */
 	public MCTSAgent(StateObservation so, ElapsedCpuTimer elapsedTimer,
-			Random a_rnd) {
+			Random a_rnd, AgentContext context) {
 		m_rnd = a_rnd;
-		m_root = new MCTSNode(a_rnd);
+		this.context = context;
+		actionPriors = new ActionPriors(context.actions);
+		rolloutPolicy = selectRolloutPolicy();
+		GameClassifier.GameFeatures features = context.gameFeatures;
+		if (features != null && features.deterministic && context.ROLLOUT_DEPTH == 0) {
+			// the same state always scores the same
+			context.rolloutValues.minSamples = 1;
+		}
+		m_root = new MCTSNode(context, a_rnd, actionPriors, rolloutPolicy, nodePool, rewardNormalizer);
 		init(so);
+		addProbeStates();
 		run(elapsedTimer);
 		nodeQty = 0;
 	}
 
+	/**
+	 * Picks the rollout policy for the game: last-good-reply learns when to
+	 * shoot, no-backtrack gets puzzles further away from the start and the
+	 * diffusion map leads through games with enemies and resources.
+	 */
+	private RolloutPolicy selectRolloutPolicy() {
+		String name = ROLLOUT_POLICY;
+		if (name == null) {
+			GameClassifier.GameFeatures features = context.gameFeatures;
+			if (features == null) {
+				// the game type was known, the features weren't tested
+				name = (context.gameType == GameClassifier.GameType.STATIC) ? "noBacktrack" : "uniform";
+			} else if (features.shooter) {
+				name = "lastGoodReply";
+			} else if (features.puzzle || !features.moving) {
+				name = "noBacktrack";
+			} else {
+				name = "distanceField";
+			}
+		}
+		switch (name) {
+		case "distanceField":
+			return new DistanceFieldRolloutPolicy(context.actions, context.diffusionMap);
+		case "noBacktrack":
+			return new NoBacktrackRolloutPolicy(context.actions);
+		case "lastGoodReply":
+			return new LastGoodReplyRolloutPolicy(context.actions.length);
+		default:
+			return new UniformRolloutPolicy(context.actions.length);
+		}
+	}
+
 	/**
 	 * Inits the tree with the new observation state in the root.
 	 * 
@@ -63,18 +156,34 @@ public class MCTSAgent extends GameAgent {
 	 */
 	public void initNew(StateObservation a_gameState) {
 		// Set the game observation to a newly root node.
-		m_root = new MCTSNode(m_rnd);
+		nodePool.discard(m_root);
+		m_root = new MCTSNode(context, m_rnd, actionPriors, rolloutPolicy, nodePool, rewardNormalizer);
 		m_root.state = a_gameState;
-		startingPos = a_gameState.getAvatarPosition();
 
 	}
 
 	public void init(StateObservation a_gameState) {
 		// Set the game observation to a newly root node.
-		m_root = new MCTSNode(m_rnd);
+		nodePool.discard(m_root);
+		m_root = new MCTSNode(context, m_rnd, actionPriors, rolloutPolicy, nodePool, rewardNormalizer);
 		m_root.state = a_gameState;
-		startingPos = a_gameState.getAvatarPosition();
+		updateDepthRun(m_root);
+	}
 
+	/**
+	 * Hangs the ACTION_NIL states the game classifier advanced anyway below
+	 * the root, along the ACTION_NIL slots, so we don't pay for them again
+	 * while we wait. The list is left to HBFS, the agent clears it.
+	 */
+	private void addProbeStates() {
+		MCTSNode node = m_root;
+		for (StateObservation probeState : context.probeStates) {
+			if (node.state.isGameOver()) {
+				break;
+			}
+			node.children[node.nilSlot()] = new MCTSNode(probeState, node);
+			node = node.children[node.nilSlot()];
+		}
 	}
 
 	public void initWithOldTree(StateObservation a_gameState, int action) {
@@ -82,32 +191,95 @@ public class MCTSAgent extends GameAgent {
 		 * Here we create a new root-tree for the next search query based on the
 		 * old tree. The old tree gets cut at the chosen action. The depth of
 		 * that tree is not changed such that it grows throughout the game.
-		 * Therefore, the maximal MCTS_Depth also grows
+		 * Therefore, the maximal MCTS_Depth also grows.
+		 *
+		 * The statistics of the kept tree were gathered for the state the
+		 * search sampled. If the real state differs (another outcome of a
+		 * stochastic step, or the world moved while we kept the complete
+		 * tree), they are decayed instead of trusted as they are.
 		 */
 
-		startingPos = a_gameState.getAvatarPosition();
-		if (action == KEEP_COMPLETE_OLD_TREE) {
-			//int oldDepth = m_root.m_depth;
-			// This means we want to keep the old tree and just update the state
+		if (action == ADD_NEW_ROOT_NODE) {
+			nodePool.discard(m_root);
+			m_root = new MCTSNode(context, m_rnd, actionPriors, rolloutPolicy, nodePool, rewardNormalizer);
 			m_root.state = a_gameState;
-			//m_root.m_depth = oldDepth;
 		} else {
-			if (action == ADD_NEW_ROOT_NODE) {
-				m_root = new MCTSNode(m_rnd);
-				m_root.state = a_gameState;
-				
-			} else {
-				// cut old tree
-				m_root = m_root.children[action];
-				m_root.state = a_gameState;
+			if (action != KEEP_COMPLETE_OLD_TREE && m_root.children[action] != null) {
+				// cut old tree, the rest of it is recycled
+				MCTSNode oldRoot = m_root;
+				m_root = oldRoot.children[action];
 				m_root.parent = null;
+				oldRoot.children[action] = null;
+				nodePool.discard(oldRoot);
+				// the root plays single actions
+				m_root.discardMacroChildren();
 				// m_root.startingRew = a_gameState.getGameScore();
 
 				// adapting the tree depth is not really feasible within the
 				// time constraints
 				// m_root.correctDepth();
 			}
+			// (otherwise we keep the old tree and just update the state, whose
+			// children are a tick behind now)
+			if (m_root.state != null && stateHash(m_root.state) == stateHash(a_gameState)) {
+				matches++;
+				if (action == KEEP_COMPLETE_OLD_TREE) {
+					nodePool.invalidateStates();
+				}
+			} else {
+				mismatches++;
+				m_root.decay(MISMATCH_DECAY);
+				nodePool.invalidateStates();
+			}
+			m_root.state = a_gameState;
+		}
+		updateDepthRun(m_root);
+	}
+
+	/**
+	 * @return the itypes the macro actions follow the path planners to in
+	 *         this tick: the most attractive ones we found a path to
+	 */
+	private int[] selectMacroTargets() {
+		if (MCTSNode.MACRO_LENGTH <= 1) {
+			return new int[0];
+		}
+		ArrayList<Integer> itypes = new ArrayList<Integer>();
+		for (Map.Entry<Integer, PathPlanner> entry : pathPlannerMaps.entrySet()) {
+			if (entry.getValue().hasPathFound() && context.iTypeAttractivity.get(entry.getKey()) > 0) {
+				itypes.add(entry.getKey());
+			}
+		}
+		Collections.sort(itypes, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(context.iTypeAttractivity.get(b), context.iTypeAttractivity.get(a));
+			}
+		});
+		int[] targets = new int[Math.min(MCTSNode.MACRO_TARGETS, itypes.size())];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = itypes.get(i);
 		}
+		return targets;
+	}
+
+	/**
+	 * Lets the search go MCTS_DEPTH_FIX levels below the root. The nodes keep
+	 * their depth when a subtree becomes the root, so the limit moves along.
+	 */
+	private void updateDepthRun(MCTSNode root) {
+		context.MCTS_DEPTH_RUN = root.m_depth + context.MCTS_DEPTH_FIX;
+	}
+
+	/**
+	 * @return a hash of the avatar and of the number of sprites of each
+	 *         itype, to tell if the real state is the one the search sampled.
+	 *         Where the NPCs walked to is left out, random walks would make
+	 *         almost every state of a stochastic game a mismatch. So is the
+	 *         tick, a kept tree is a tick older than the real state.
+	 */
+	public static long stateHash(StateObservation so) {
+		return RolloutValueCache.key(so, false);
 	}
 
 	/**
@@ -120,17 +292,24 @@ public class MCTSAgent extends GameAgent {
 	public int run(ElapsedCpuTimer elapsedTimer) {
 		
 		// create the different PathPlanningMaps for the different itypes that we see at the moment.
-		initPathPlannerMaps(m_root.state);
-		
-		PersistentStorage.previousAvatarRessources = m_root.state.getAvatarResources();
+		initPathPlannerMaps(m_root.state, elapsedTimer);
+
+		// publish what the nodes need to know about this tick
+		context.publishTick(new AgentContext.TickSnapshot(m_root.state.getGameScore(), numberOfBlockedMovables,
+				m_root.state.getAvatarPosition(), m_root.state.getAvatarResources(), pathPlannerMaps,
+				selectMacroTargets()));
 		
-		// Do the search within the available time.
-		m_root.mctsSearch(elapsedTimer);
+		// don't waste iterations on actions that kill us right away
+		m_root.pruneLethal(SafeActionFilter.evaluate(m_root.state, context, elapsedTimer));
+
+		// Do the search within the available time, or until one action
+		// dominates the others.
+		int decided = m_root.mctsSearch(elapsedTimer);
 
 		// Determine the best action to take and return it.
 		// int action = m_root.mostVisitedAction();
 		
-		int action = m_root.bestAction();
+		int action = (decided >= 0) ? decided : m_root.bestAction();
 //			for (int i = 1; i<= m_root.children.length ; i++ ){
 //				if(m_root.children[i-1] != null){
 //					System.out.print("  val"+i+": "+ m_root.children[i-1].totValue);
@@ -159,13 +338,12 @@ public class MCTSAgent extends GameAgent {
 		// Heuristic: change the reward in the exploration reward map of the
 		// visited current position
 		Vector2d avatarPos = stateObs.getAvatarPosition();
-		startingPos = avatarPos;
 		
 		// increment reward at all unvisited positions and decrement at
 		// current position
-		PersistentStorage.rewMap.incrementAll(0.001);
-		PersistentStorage.rewMap.setRewardAtWorldPosition(avatarPos, -0.3);
-		PersistentStorage.rewMap.decrementAtPos(avatarPos, -0.01);
+		context.rewMap.incrementAll(0.001);
+		context.rewMap.setRewardAtWorldPosition(avatarPos, -0.3);
+		context.rewMap.decrementAtPos(avatarPos, -0.01);
 
 		// rewMap.print();
 
@@ -181,28 +359,29 @@ public class MCTSAgent extends GameAgent {
 		 * they currently are which would require a lot of time (I tried it for
 		 * all Sprites, but it was too inefficient)
 		 * 
-		 * @note Heuristic (IDEA): Perhaps increase reward towards positions
-		 * that have a resource. -> some sort of diffusion model with the
-		 * resources as positive sources and the enemies as negative sources to
-		 * create a reward gradient.
+		 * @note The reward gradient towards resources and away from enemies
+		 * is done by the DiffusionMap below, which is relaxed incrementally.
 		 */
 
+		// the sprite lists of this state are shared by the heuristics below
+		ObservationFeatures features = context.getFeatures(stateObs);
+
 		boolean rewardNPCs = false;
 		if (rewardNPCs) {
 			ArrayList<Observation>[] npcPositions = null;
-			npcPositions = stateObs.getNPCPositions();
+			npcPositions = features.getNPCPositions();
 			double npcAttractionValue = 0;
 			if (npcPositions != null) {
 				for (ArrayList<Observation> npcs : npcPositions) {
 					for (int i = 0; i < npcs.size(); i++) {
 						Vector2d npcPos = npcs.get(i).position;
 
-						npcAttractionValue = PersistentStorage.iTypeAttractivity
+						npcAttractionValue = context.iTypeAttractivity
 								.putIfAbsent(npcs.get(i));
 
-						if (Math.abs(PersistentStorage.rewMap
+						if (Math.abs(context.rewMap
 								.getRewardAtWorldPosition(npcPos)) < 1) {
-							PersistentStorage.rewMap
+							context.rewMap
 									.incrementRewardAtWorldPosition(npcPos,
 											npcAttractionValue * 0.02);
 						}
@@ -214,19 +393,19 @@ public class MCTSAgent extends GameAgent {
 		boolean rewardResources = true;
 		if (rewardResources) {
 			ArrayList<Observation>[] resPositions = null;
-			resPositions = stateObs.getNPCPositions();
+			resPositions = features.getNPCPositions();
 			double resAttractionValue = 0;
 			if (resPositions != null) {
 				for (ArrayList<Observation> ress : resPositions) {
 					for (int i = 0; i < ress.size(); i++) {
 						Vector2d resPos = ress.get(i).position;
 
-						resAttractionValue = PersistentStorage.iTypeAttractivity
+						resAttractionValue = context.iTypeAttractivity
 								.putIfAbsent(ress.get(i));
 
-						if (Math.abs(PersistentStorage.rewMap
+						if (Math.abs(context.rewMap
 								.getRewardAtWorldPosition(resPos)) < 1) {
-							PersistentStorage.rewMap
+							context.rewMap
 									.incrementRewardAtWorldPosition(resPos,
 											resAttractionValue * 0.02);
 						}
@@ -235,6 +414,13 @@ public class MCTSAgent extends GameAgent {
 			}
 		}
 
+		// move the sources of the diffusion map to the current sprites and
+		// relax the field a little
+		context.diffusionMap.updateSources(stateObs, features,
+				context.iTypeAttractivity);
+		context.diffusionMap
+				.relax(DiffusionMap.RELAXATION_BUDGET_MICROS, context.timeBudget);
+
 		boolean useOldTree = true;
 		if (useOldTree) {
 			// Sets a new tree with the children[oldAction] as the root
@@ -245,19 +431,14 @@ public class MCTSAgent extends GameAgent {
 			init(stateObs);
 		}
 
-		PersistentStorage.startingReward = stateObs.getGameScore();
-
-		PersistentStorage.numberOfBlockedMovables = MCTSNode
-				.trapHeuristic(stateObs);
+		numberOfBlockedMovables = MCTSNode
+				.trapHeuristic(stateObs, features);
 
 		// Determine the action using MCTS...
 		int action = run(elapsedTimer);
 		// if (stateObs.getGameTick() % 2 == 0) {
 		// action = KEEP_COMPLETE_TREE;
 		// }
-		if (action > ADD_NEW_ROOT_NODE && useOldTree) {
-			PersistentStorage.MCTS_DEPTH_RUN += 1;
-		}
 
 		/*
 		 * there is a problem when the tree is so small that the chosen children
@@ -268,43 +449,102 @@ public class MCTSAgent extends GameAgent {
 		 * problem -> the guy is stuck.
 		 */
 
-		if (action == ADD_NEW_ROOT_NODE)
-			action = KEEP_COMPLETE_OLD_TREE;
+		if (action == ADD_NEW_ROOT_NODE) {
+			// we wait, the subtree of ACTION_NIL is the one that comes true
+			if (m_root.nilChild() != null) {
+				action = m_root.nilSlot();
+				grafts++;
+			} else {
+				action = KEEP_COMPLETE_OLD_TREE;
+			}
+		}
 		
 		
 		oldAction = action;
+		if (action >= 0) {
+			// the depth limit of the next search
+			updateDepthRun(m_root.children[action]);
+		}
 		
-		PersistentStorage.lastGameState = stateObs;
+		context.lastState = stateObs;
 		if(action >0)
-			PersistentStorage.lastWinLoseExpectation =m_root.children[action].totValue;
+			context.lastWinLoseExpectation =m_root.children[action].totValue;
 		else
-			PersistentStorage.lastWinLoseExpectation = -1;
+			context.lastWinLoseExpectation = -1;
 
 		
 		// ... and return it.
-		if (action == KEEP_COMPLETE_OLD_TREE || action == ADD_NEW_ROOT_NODE) {
+		if (action == KEEP_COMPLETE_OLD_TREE || action == ADD_NEW_ROOT_NODE || action == m_root.nilSlot()) {
 			return Types.ACTIONS.ACTION_NIL;
 		} else {
-			return PersistentStorage.actions[action];
+			return context.actions[action];
 		}
 
 	}
 	
 	
-	public void initPathPlannerMaps(StateObservation state){
+	/**
+	 * @return how different the actions at the root of the last search are
+	 *         valued
+	 */
+	public double getRootValueSpread() {
+		return m_root.childValueSpread();
+	}
+
+	/**
+	 * @return if the last search saw the action kill the avatar. Waiting is
+	 *         simulated if the search didn't sample it.
+	 */
+	public boolean isLosingAction(ACTIONS action) {
+		if (action == Types.ACTIONS.ACTION_NIL) {
+			MCTSNode nil = m_root.nilChild();
+			return nil != null && nil.isLoseState();
+		}
+		for (int i = 0; i < context.actions.length; i++) {
+			if (context.actions[i] == action && m_root.children[i] != null) {
+				return m_root.children[i].isLoseState();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells the agent that another action than the one it returned from act()
+	 * was played, so the next search continues from the right subtree.
+	 */
+	public void setPlayedAction(ACTIONS action) {
+		int played = KEEP_COMPLETE_OLD_TREE;
+		if (action == Types.ACTIONS.ACTION_NIL && m_root.nilChild() != null) {
+			played = m_root.nilSlot();
+		}
+		for (int i = 0; i < context.actions.length; i++) {
+			if (context.actions[i] == action && m_root.children[i] != null) {
+				played = i;
+			}
+		}
+		oldAction = played;
+		updateDepthRun((played >= 0) ? m_root.children[played] : m_root);
+	}
+
+	public void initPathPlannerMaps(StateObservation state, ElapsedCpuTimer elapsedTimer){
 
 		pathPlannerMaps = new HashMap<Integer,PathPlanner>();
 		// add Npc maps
-		updatePPMaps(1,state);
+		updatePPMaps(1,state,elapsedTimer);
 		// add Ressource maps
-		updatePPMaps(2,state);
+		updatePPMaps(2,state,elapsedTimer);
 		// add movable maps
-		updatePPMaps(3,state);
+		updatePPMaps(3,state,elapsedTimer);
 		
 		
 	}
 	
-	public void updatePPMaps(int movNpcOrRes, StateObservation state){
+	/**
+	 * Plans the ways to the closest sprite of each itype, as long as the time
+	 * budget allows it. The itypes without a path planner don't get a
+	 * distance reward in this tick.
+	 */
+	public void updatePPMaps(int movNpcOrRes, StateObservation state, ElapsedCpuTimer elapsedTimer){
 		
 		Vector2d posAvatar = state.getAvatarPosition();
 		int blockSize = state.getBlockSize();
@@ -314,16 +554,17 @@ public class MCTSAgent extends GameAgent {
 		ArrayList<Observation>[] movPos = null;
 		
 		// decide between NPC, Ressource and Movables
+		ObservationFeatures features = context.getFeatures(state);
 		if(movNpcOrRes == 1){
-			movPos = state.getNPCPositions(posAvatar);
+			movPos = features.getNPCPositionsByDistance();
 		}
 		else{
 			if(movNpcOrRes == 2){
-				movPos = state.getResourcesPositions(posAvatar);
+				movPos = features.getResourcesPositionsByDistance();
 			}
 			else{
 				if(movNpcOrRes == 3){
-					movPos = state.getMovablePositions(posAvatar);
+					movPos = features.getMovablePositionsByDistance();
 				}
 			}
 		}
@@ -334,21 +575,14 @@ public class MCTSAgent extends GameAgent {
 					//for(int i = 0; i< res.size(); i++){
 					//only look at the closest rewarding/punishing npc
 					for(int i = 0; i< 1; i++){
-
-						double movAttractionValue = 0;
-						try {
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(mov.get(i));
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
+						double movAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(mov.get(i));
+						if (!context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.PATH_PLANNING)) {
+							continue;
 						}
-						movAttractionValue = PersistentStorage.iTypeAttractivity
-								.get(mov.get(i).itype);
+						long start = System.nanoTime();
 						// update the pathplannerMaps for the closest movables
-						PathPlanner pp = new PathPlanner();
+						PathPlanner pp = new PathPlanner(context.adjacencyMap);
 						Vector2d movPosition = mov.get(i).position;
 						int movX = floorDiv((int) (movPosition.x + 0.1), blockSize);
 						int movY = floorDiv((int) (movPosition.y + 0.1), blockSize);
@@ -356,6 +590,7 @@ public class MCTSAgent extends GameAgent {
 						pp.updateGoal(movX, movY);
 						pp.updateWays();
 						pathPlannerMaps.put(mov.get(i).itype, pp);
+						context.timeBudget.record(TimeBudget.PATH_PLANNING, start);
 					}
 				}
 			}
@@ -373,9 +608,40 @@ public class MCTSAgent extends GameAgent {
 	}
 
 
-	public void clearMemory() {
-		// TODO Implement what to do when we run out of memory.
+	public void printStatistics() {
+		actionPriors.printStatistics();
+		rolloutPolicy.getStatistics().printStatistics();
+		context.rolloutValues.printStatistics();
+		nodePool.printStatistics();
+		rewardNormalizer.printStatistics();
+		System.out.println("REUSE::matches:" + matches + "|mismatches:" + mismatches + "|grafts:" + grafts);
+	}
 
+	/**
+	 * Cuts off the rarely visited subtrees, the more the larger the share.
+	 * The subtrees are given to the collector right away, not recycled.
+	 */
+	@Override
+	public void shedMemory(double share) {
+		if (share >= 1) {
+			clearMemory();
+			return;
+		}
+		// a share of 1/8 cuts the subtrees with a single visit
+		int maxVisits = Math.max(1, (int) (share * 8));
+		m_root.pruneLowVisits(maxVisits);
+		nodePool.trim();
+	}
+
+	/**
+	 * Keeps the root and forgets the rest of the tree.
+	 */
+	public void clearMemory() {
+		for (int i = 0; i < m_root.children.length; i++) {
+			m_root.children[i] = null;
+		}
+		nodePool.trim();
+		context.probeStates.clear();
 	}
 
 }
\ No newline at end of file
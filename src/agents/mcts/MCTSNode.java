@@ -2,18 +2,25 @@ package agents.mcts;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
+import agents.misc.AgentContext;
+import agents.misc.AttractivityDelta;
+import agents.misc.ObservationFeatures;
 import agents.misc.ObservationTools;
-import agents.misc.PersistentStorage;
+import agents.misc.RolloutValueCache;
+import agents.misc.SafeActions;
+import agents.misc.SpatialIndex;
+import agents.misc.TimeBudget;
 import agents.misc.pathplanning.PathPlanner;
 import bladeRunner.Agent;
 import core.game.Observation;
 import core.game.StateObservation;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
-import tools.Utils;
 import tools.Vector2d;
 
 public class MCTSNode {
@@ -21,58 +28,180 @@ public class MCTSNode {
 		UNCACHED, LOSE, NORMAL, WIN
 	}
 
-	public static Random m_rnd;
+	public Random m_rnd;
 
-	// strong rewards
-	private static final double HUGE_NEGATIVE_REWARD = -Double.MAX_VALUE;
-	private static final double HUGE_POSITIVE_REWARD = Double.MAX_VALUE;
+	/**
+	 * The game this node belongs to.
+	 */
+	public final AgentContext context;
 
 	public static double fear_of_unknown = 0.99;
 	public static double epsilon = 1e-6;
 	public static double egreedyEpsilon = 0.05;
+
+	/*
+	 * progressive widening: a node with n visits may have up to
+	 * WIDENING_CONSTANT * (n + 1)^WIDENING_EXPONENT expanded children (at
+	 * least MIN_CHILDREN), so the iterations go deeper into the promising
+	 * actions instead of trying every action of every node once
+	 */
+	public static double WIDENING_CONSTANT = 1;
+	public static double WIDENING_EXPONENT = 0.5;
+	public static int MIN_CHILDREN = 2;
+
+	/** share of the expansion order that is left to chance */
+	public static double EXPANSION_RANDOMIZATION = 0.5;
+
+	/*
+	 * RAVE: the all-moves-as-first value of an action is blended into uct()
+	 * with the weight sqrt(RAVE_EQUIVALENCE / (3 n + RAVE_EQUIVALENCE)), which
+	 * decays with the n visits of the child.
+	 */
+	public static double RAVE_EQUIVALENCE = 250;
+
+	/**
+	 * A rollout stops once the score didn't change for this many steps, the
+	 * remaining random steps would only add noise to the heuristics.
+	 */
+	public static int STABLE_STEPS = 2;
+
+	/**
+	 * Nodes of discarded subtrees taken apart per iteration, see
+	 * {@link NodePool}.
+	 */
+	public static int RECLAIM_PER_ITERATION = 16;
+
+	/*
+	 * anytime decisions: every CONFIDENCE_CHECK_INTERVAL iterations the search
+	 * checks if the mean of one action at the root minus CONFIDENCE_Z standard
+	 * errors is above the means plus CONFIDENCE_Z standard errors of all other
+	 * actions. Every action needs MIN_CONFIDENT_VISITS visits first and a
+	 * standard deviation of at least MIN_DEVIATION is assumed, so a few equal
+	 * rollouts don't look certain. The check is repeated, so an action only
+	 * counts once it dominated in two checks in a row. The rest of the tick
+	 * goes into the subtree of that action, the root of the next search.
+	 */
+	public static double CONFIDENCE_Z = 2.58;
+	public static int MIN_CONFIDENT_VISITS = 16;
+	public static int CONFIDENCE_CHECK_INTERVAL = 32;
+	public static double MIN_DEVIATION = 0.05;
+
+	/*
+	 * macro actions: below the root of the search an edge covers up to
+	 * MACRO_LENGTH game ticks, so the same depth looks further ahead for
+	 * fewer nodes. The edge of an action repeats it until the avatar is
+	 * stuck, MACRO_TARGETS additional edges follow the path planners of the
+	 * tick to the most attractive itypes (see AgentContext.TickSnapshot). The
+	 * root keeps single actions, they are what we play. Turn it on with
+	 * -Dbladerunner.macro=<length>.
+	 */
+	public static int MACRO_LENGTH = Integer.getInteger("bladerunner.macro", 0);
+	public static int MACRO_TARGETS = 2;
+
+	/**
+	 * The learned priors of the actions, decide which action is expanded
+	 * next.
+	 */
+	public final ActionPriors priors;
+
+	/**
+	 * Picks the actions of the rollouts.
+	 */
+	public final RolloutPolicy rolloutPolicy;
+
+	/**
+	 * Recycles the nodes of cut off subtrees.
+	 */
+	public final NodePool pool;
+
+	/**
+	 * Scales the exploration to the rollout results of the search.
+	 */
+	public final RewardNormalizer normalizer;
 	public StateObservation state;
 	public MCTSNode parent;
 	public MCTSNode[] children;
 	public double totValue;
+	// sum of the squared results, for the confidence of the mean
+	public double sumSquares;
 	public int nVisits;
+	// game ticks of the edge into this node
+	public int macroSteps = 1;
 
 	public int m_depth;
-	private static double[] lastBounds = new double[] { 0, 1 };
-	private static double[] curBounds = new double[] { 0, 1 };
 	public StateType stateType = StateType.UNCACHED;
+	// the resource state of the avatar, -1 if not known yet
+	private int resourceState = -1;
+
+	// all-moves-as-first statistics by action, null until the first backup
+	private double[] amafValue;
+	private int[] amafVisits;
+	// the actions of the last rollout from this node as bits by action
+	private long rolloutActions;
+	// the state generation of the pool the state was simulated in
+	private int stateGeneration;
+	// the key of the state in the rollout value cache, valid for keyState
+	private long rolloutKey;
+	private StateObservation keyState;
 
 	// keeps track of the reward at the start of the MCTS search
 	// public double startingRew;
 
-	public MCTSNode(Random rnd) {
-		this(null, null, rnd);
+	/**
+	 * Creates a root node.
+	 */
+	public MCTSNode(AgentContext context, Random rnd, ActionPriors priors, RolloutPolicy rolloutPolicy,
+			NodePool pool, RewardNormalizer normalizer) {
+		this.state = null;
+		this.parent = null;
+		this.context = context;
+		this.m_rnd = rnd;
+		this.priors = priors;
+		this.rolloutPolicy = rolloutPolicy;
+		this.pool = pool;
+		this.normalizer = normalizer;
+		children = new MCTSNode[childSlots(context)];
+		totValue = 0.0;
+		m_depth = 0;
 	}
 
-	public MCTSNode(StateObservation state, MCTSNode parent, Random rnd) {
+	public MCTSNode(StateObservation state, MCTSNode parent) {
 		this.state = state;
 		this.parent = parent;
-		MCTSNode.m_rnd = rnd;
-		children = new MCTSNode[PersistentStorage.actions.length];
+		this.context = parent.context;
+		this.m_rnd = parent.m_rnd;
+		this.priors = parent.priors;
+		this.rolloutPolicy = parent.rolloutPolicy;
+		this.pool = parent.pool;
+		this.normalizer = parent.normalizer;
+		children = new MCTSNode[childSlots(context)];
 		totValue = 0.0;
-		if (parent != null) {
-			m_depth = parent.m_depth + 1;
-		} else {
-			m_depth = 0;
-		}
-
+		m_depth = parent.m_depth + 1;
+		stateGeneration = pool.getStateGeneration();
 	}
 
-	public MCTSNode(StateObservation state, MCTSNode parent) {
+	/**
+	 * Makes a recycled node a fresh child of the parent. The children were
+	 * cleared by the pool.
+	 */
+	void reset(StateObservation state, MCTSNode parent) {
 		this.state = state;
 		this.parent = parent;
-		children = new MCTSNode[PersistentStorage.actions.length];
+		this.m_rnd = parent.m_rnd;
 		totValue = 0.0;
-		if (parent != null) {
-			m_depth = parent.m_depth + 1;
-		} else {
-			m_depth = 0;
+		sumSquares = 0.0;
+		nVisits = 0;
+		macroSteps = 1;
+		m_depth = parent.m_depth + 1;
+		stateType = StateType.UNCACHED;
+		resourceState = -1;
+		stateGeneration = pool.getStateGeneration();
+		if (amafVisits != null) {
+			Arrays.fill(amafValue, 0);
+			Arrays.fill(amafVisits, 0);
 		}
-
+		rolloutActions = 0;
+		keyState = null;
 	}
 
 	public int countNodes() {
@@ -85,23 +214,31 @@ public class MCTSNode {
 		return n;
 	}
 
-	public void mctsSearch(ElapsedCpuTimer elapsedTimer) {
+	/**
+	 * Searches until the time is up.
+	 * 
+	 * @return the action that dominated the others early in the search, -1
+	 *         if the search had to use all its time
+	 */
+	public int mctsSearch(ElapsedCpuTimer elapsedTimer) {
+		int decided = -1;
 
-		lastBounds[0] = curBounds[0];
-		lastBounds[1] = curBounds[1];
+		normalizer.begin();
 		int firstTry = 0;
 		if(elapsedTimer.remainingTimeMillis() > 300){
-			PersistentStorage.MCTS_DEPTH_RUN = 20;
+			context.MCTS_DEPTH_RUN = 20;
 			firstTry = 1;
 		}
 
 
 		if(firstTry == 1){
-			while (elapsedTimer.remainingTimeMillis() > 50) {
+			while (context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.MCTS_ITERATION,
+					TimeBudget.INITIALIZATION_RESERVE_MILLIS)) {
+				long start = System.nanoTime();
 
 				MCTSNode cur = this;
 				while (!cur.state.isGameOver()
-						&& cur.m_depth < PersistentStorage.MCTS_DEPTH_RUN) {
+						&& cur.m_depth < context.MCTS_DEPTH_RUN) {
 					if (cur.notFullyExpanded()) {
 						//form deeper trees
 						cur = cur.expand();
@@ -113,28 +250,105 @@ public class MCTSNode {
 				}
 
 				double delta = cur.rollOut();
-				backUp(cur, delta+1,1);
+				backUp(cur, delta+1);
 				// backUpBest(selected, delta);
+				pool.reclaim(RECLAIM_PER_ITERATION);
+				context.timeBudget.record(TimeBudget.MCTS_ITERATION, start);
 			}
-			PersistentStorage.MCTS_DEPTH_RUN = PersistentStorage.MCTS_DEPTH_FIX;
+			context.MCTS_DEPTH_RUN = context.MCTS_DEPTH_FIX;
 		}
 
 		else{
-			while (elapsedTimer.remainingTimeMillis() > 10) {
-				MCTSNode selected = treePolicy();
+			int iterations = 0;
+			int lastDominant = -1;
+			MCTSNode searched = this;
+			while (context.timeBudget.hasTimeFor(elapsedTimer, TimeBudget.MCTS_ITERATION)) {
+				long start = System.nanoTime();
+				MCTSNode selected = searched.treePolicy();
 				double delta = selected.rollOut();
-				backUp(selected, delta,1);
+				backUp(selected, delta);
 				// backUpBest(selected, delta);
+				pool.reclaim(RECLAIM_PER_ITERATION);
+				context.timeBudget.record(TimeBudget.MCTS_ITERATION, start);
+
+				if (decided < 0 && ++iterations % CONFIDENCE_CHECK_INTERVAL == 0) {
+					int dominant = dominantAction();
+					decided = (dominant >= 0 && dominant == lastDominant) ? dominant : -1;
+					lastDominant = dominant;
+					if (decided >= 0) {
+						// search the rest of the tick in the next root, which
+						// the search treats as its root from now on
+						context.timeBudget.countEarlyDecision(elapsedTimer);
+						searched = children[decided];
+						context.MCTS_DEPTH_RUN = searched.m_depth + context.MCTS_DEPTH_FIX;
+						if (searched.state.isGameOver()) {
+							break;
+						}
+					}
+				}
 			}
 		}
+		return decided;
+	}
 
+	/**
+	 * @return the action whose lower confidence bound is above the upper
+	 *         bounds of all other actions at this node, -1 if there is none
+	 *         (yet). Lethal actions are ignored, unexpanded ones can't be ruled
+	 *         out.
+	 */
+	public int dominantAction() {
+		int best = -1;
+		double bestMean = -Double.MAX_VALUE;
+		for (int i = 0; i < context.actions.length; i++) {
+			MCTSNode child = children[i];
+			if (child == null) {
+				return -1;
+			}
+			if (child.isLoseState()) {
+				continue;
+			}
+			if (child.nVisits < MIN_CONFIDENT_VISITS) {
+				return -1;
+			}
+			double mean = child.totValue / child.nVisits;
+			if (mean > bestMean) {
+				bestMean = mean;
+				best = i;
+			}
+		}
+		if (best < 0) {
+			return -1;
+		}
+		double lowerBound = bestMean - children[best].confidenceRadius();
+		for (int i = 0; i < context.actions.length; i++) {
+			MCTSNode child = children[i];
+			if (i != best && !child.isLoseState()
+					&& child.totValue / child.nVisits + child.confidenceRadius() >= lowerBound) {
+				return -1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return CONFIDENCE_Z standard errors of the mean value of the node
+	 */
+	private double confidenceRadius() {
+		double mean = totValue / nVisits;
+		double deviation = Math.max(MIN_DEVIATION, Math.sqrt(Math.max(0, sumSquares / nVisits - mean * mean)));
+		if (Double.isNaN(deviation) || Double.isInfinite(deviation)) {
+			// the value overflowed, nothing is certain about it
+			return Double.POSITIVE_INFINITY;
+		}
+		return CONFIDENCE_Z * deviation / Math.sqrt(nVisits);
 	}
 
 	public MCTSNode treePolicy() {
 
 		MCTSNode cur = this;
 		while (!cur.state.isGameOver()
-				&& cur.m_depth < PersistentStorage.MCTS_DEPTH_RUN) {
+				&& cur.m_depth < context.MCTS_DEPTH_RUN) {
 			if (cur.notFullyExpanded()) {
 				// expand with random actions of the unused actions.
 				return cur.expand();
@@ -149,27 +363,204 @@ public class MCTSNode {
 		return cur;
 	}
 
+	/**
+	 * Replaces the children of lethal actions by the state they died in, so
+	 * the search never expands them: uct() skips lose states and bestAction()
+	 * dead ends. Nothing is pruned if every action is lethal. A lethal
+	 * ACTION_NIL gets its death state as well, so we know not to wait.
+	 */
+	public void pruneLethal(SafeActions safeActions) {
+		int nil = nilSlot();
+		if (safeActions.isLethal(safeActions.nilIndex()) && (children[nil] == null || !children[nil].isLoseState())) {
+			pool.discard(children[nil]);
+			children[nil] = pool.obtain(safeActions.getDeathState(safeActions.nilIndex()), this);
+		}
+		if (!safeActions.hasSafeAction()) {
+			return;
+		}
+		for (int i = 0; i < context.actions.length; i++) {
+			if (safeActions.isLethal(i) && (children[i] == null || !children[i].isLoseState())) {
+				pool.discard(children[i]);
+				children[i] = pool.obtain(safeActions.getDeathState(i), this);
+			}
+		}
+	}
+
 	public MCTSNode expand() {
 
+		if (resourceState < 0) {
+			resourceState = ActionPriors.resourceState(state);
+		}
 		int bestAction = 0;
-		double bestValue = -1; // select a never used action
+		double bestValue = -1; // select the never used action with the best prior
 		for (int i = 0; i < children.length; i++) {
-			double x = MCTSNode.m_rnd.nextDouble();
-			if (x > bestValue && children[i] == null) {
+			if (children[i] != null || !isExpandable(i)) {
+				continue;
+			}
+			// the path to a target is as promising as the best action
+			double prior = (i < context.actions.length) ? priors.getPrior(resourceState, i) : 1;
+			double x = prior * (1 - EXPANSION_RANDOMIZATION + EXPANSION_RANDOMIZATION * m_rnd.nextDouble());
+			if (x > bestValue) {
 				bestAction = i;
 				bestValue = x;
 			}
 		}
 		StateObservation nextState = state.copy();
-		nextState.advance(PersistentStorage.actions[bestAction]);
+		int steps = advance(nextState, bestAction);
+		if (steps == 1 && bestAction < context.actions.length) {
+			priors.observe(state, resourceState, bestAction, nextState);
+		}
 
 		// build children for the newly tried action
-		MCTSNode tn = new MCTSNode(nextState, this);
+		MCTSNode tn = pool.obtain(nextState, this);
+		tn.macroSteps = steps;
 		children[bestAction] = tn;
 		return tn;
 
 	}
 
+	/**
+	 * @return if the node is the root of the search, or above it
+	 */
+	private boolean isSearchRoot() {
+		return m_depth <= context.MCTS_DEPTH_RUN - context.MCTS_DEPTH_FIX;
+	}
+
+	/**
+	 * @return the number of child slots: one per action, the paths to the
+	 *         targets if macro actions are on and ACTION_NIL
+	 */
+	private static int childSlots(AgentContext context) {
+		int slots = context.actions.length + ((MACRO_LENGTH > 1) ? MACRO_TARGETS : 0) + 1;
+		if (slots > Long.SIZE) {
+			// the played actions of the AMAF statistics are the bits of a long
+			throw new IllegalStateException("Too many child slots: " + slots);
+		}
+		return slots;
+	}
+
+	/**
+	 * @return the slot of ACTION_NIL, the last one. The search doesn't expand
+	 *         or select it, it holds the state we are in if we wait (see
+	 *         {@link #nilChild()}).
+	 */
+	int nilSlot() {
+		return children.length - 1;
+	}
+
+	/**
+	 * @return the child of waiting a tick, simulated if there is none yet,
+	 *         null if the game is over
+	 */
+	public MCTSNode nilChild() {
+		int nil = nilSlot();
+		if (children[nil] == null && !state.isGameOver()) {
+			StateObservation nextState = state.copy();
+			nextState.advance(Types.ACTIONS.ACTION_NIL);
+			children[nil] = pool.obtain(nextState, this);
+		}
+		return children[nil];
+	}
+
+	/**
+	 * @return if the slot may get a child: the actions always, the paths to
+	 *         targets below the root and only if the tick has the target
+	 */
+	private boolean isExpandable(int slot) {
+		if (slot < context.actions.length) {
+			return true;
+		}
+		if (slot == nilSlot()) {
+			return false;
+		}
+		return !isSearchRoot() && getTargetPlanner(slot) != null;
+	}
+
+	/**
+	 * @return the path planner a target slot follows in this tick, null if
+	 *         there is no target for the slot
+	 */
+	private PathPlanner getTargetPlanner(int slot) {
+		AgentContext.TickSnapshot tick = context.getTick();
+		int target = slot - context.actions.length;
+		return (target < tick.macroTargets.length) ? tick.pathPlannerMaps.get(tick.macroTargets[target]) : null;
+	}
+
+	/**
+	 * Advances the state along the edge of a slot: its action at the root of
+	 * the search, below it up to MACRO_LENGTH steps of the action or along the
+	 * path to the target.
+	 * 
+	 * @return the number of game ticks advanced
+	 */
+	private int advance(StateObservation so, int slot) {
+		if (slot < context.actions.length && (MACRO_LENGTH <= 1 || isSearchRoot())) {
+			so.advance(context.actions[slot]);
+			return 1;
+		}
+		PathPlanner planner = (slot < context.actions.length) ? null : getTargetPlanner(slot);
+		if (slot >= context.actions.length && planner == null) {
+			// the target of an older tick is gone
+			so.advance(Types.ACTIONS.ACTION_NIL);
+			return 1;
+		}
+		int blockSize = so.getBlockSize();
+		int steps = 0;
+		while (steps < MACRO_LENGTH && (steps == 0 || !so.isGameOver())) {
+			Vector2d position = so.getAvatarPosition().copy();
+			Vector2d orientation = so.getAvatarOrientation().copy();
+			Types.ACTIONS action;
+			if (planner == null) {
+				action = context.actions[slot];
+			} else {
+				action = planner.getNextStepToGoal(MCTSAgent.floorDiv((int) (position.x + 0.1), blockSize),
+						MCTSAgent.floorDiv((int) (position.y + 0.1), blockSize));
+				if (action == null || !context.isAvailable[action.ordinal()]) {
+					// at the target, or a step we can't take
+					action = Types.ACTIONS.ACTION_NIL;
+				}
+				if (action == Types.ACTIONS.ACTION_NIL && steps > 0) {
+					// arrived, or off the known paths
+					break;
+				}
+			}
+			so.advance(action);
+			steps++;
+			if (so.getAvatarPosition().equals(position) && so.getAvatarOrientation().equals(orientation)
+					&& action != Types.ACTIONS.ACTION_NIL) {
+				// stuck, repeating it won't get us anywhere
+				break;
+			}
+		}
+		pool.countMacroEdge(steps, planner != null);
+		return steps;
+	}
+
+	/**
+	 * Discards the children that cover more than one tick or follow a path.
+	 * Called when the node becomes the root of the search, which plays single
+	 * actions.
+	 */
+	public void discardMacroChildren() {
+		for (int i = 0; i < children.length; i++) {
+			if (children[i] != null && ((i >= context.actions.length && i != nilSlot()) || children[i].macroSteps > 1)) {
+				pool.discard(children[i]);
+				children[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the game ticks between the root of the search and this node
+	 */
+	private int ticksFromSearchRoot() {
+		int ticks = 0;
+		for (MCTSNode n = this; n != null && !n.isSearchRoot(); n = n.parent) {
+			ticks += n.macroSteps;
+		}
+		return ticks;
+	}
+
 	public MCTSNode uct() {
 
 
@@ -177,18 +568,27 @@ public class MCTSNode {
 		MCTSNode selectedNode = null;
 		int selected = -1;
 		double bestValue = -Double.MAX_VALUE;
-		for (int i = 0; i < children.length; i++) {
+		double exploration = context.K * normalizer.scale();
+		for (int i = 0; i < nilSlot(); i++) {
+			if (children[i] == null) {
+				// not expanded yet (progressive widening)
+				continue;
+			}
 			double hvVal = children[i].totValue;
 			double childValue = hvVal
 					/ (children[i].nVisits + MCTSNode.epsilon);
+			if (amafVisits != null && amafVisits[i] > 0) {
+				double beta = Math.sqrt(RAVE_EQUIVALENCE / (3 * children[i].nVisits + RAVE_EQUIVALENCE));
+				childValue = (1 - beta) * childValue + beta * amafValue[i] / amafVisits[i];
+			}
 
 			// reward + UCT-exploration term. Not clear to me if this is useful
 			// for the size of the tree that we have within our time constraints
 			double uctValue = childValue
-					+ PersistentStorage.K
+					+ exploration
 					* Math.sqrt(Math.log(nVisits + 1)
 							/ (children[i].nVisits + MCTSNode.epsilon))
-							+ MCTSNode.m_rnd.nextDouble() * MCTSNode.epsilon;
+							+ m_rnd.nextDouble() * MCTSNode.epsilon;
 
 			// small sampleRandom numbers: break ties in unexpanded nodes
 			if (uctValue > bestValue && !children[i].isLoseState()) {
@@ -203,16 +603,23 @@ public class MCTSNode {
 						+ selected + ".");
 			}
 			selected = 0;
+			while (selected < nilSlot() - 1 && children[selected] == null) {
+				selected++;
+			}
 		}
 		if (selected != -1) {
 			// if we do the uct step it might be worthwhile also to update the
 			// state believe, this way we create a real rollout from a newly
 			// sampled state-pathway and not just from the very first one.
+			// In a deterministic game it would be the same state again.
 
 			selectedNode = children[selected];
-			StateObservation nextState = state.copy();
-			nextState.advance(PersistentStorage.actions[selected]);
-			selectedNode.state = nextState;
+			if (!canReuseStates() || selectedNode.stateGeneration != pool.getStateGeneration()) {
+				StateObservation nextState = state.copy();
+				selectedNode.macroSteps = advance(nextState, selected);
+				selectedNode.state = nextState;
+				selectedNode.stateGeneration = pool.getStateGeneration();
+			}
 
 		}
 		if (selectedNode == null) {
@@ -222,20 +629,30 @@ public class MCTSNode {
 		return selectedNode;
 	}
 
+	/**
+	 * @return if the states of the children can be kept instead of being
+	 *         simulated again: the game is deterministic and the edges are
+	 *         single actions. Macro edges depend on the path planners of the
+	 *         tick and on the root of the search.
+	 */
+	private boolean canReuseStates() {
+		return MACRO_LENGTH <= 1 && context.gameFeatures != null && context.gameFeatures.deterministic;
+	}
+
 	public MCTSNode egreedy() {
 
 		MCTSNode selected = null;
 
-		if (MCTSNode.m_rnd.nextDouble() < egreedyEpsilon) {
+		if (m_rnd.nextDouble() < egreedyEpsilon) {
 			// Choose randomly
-			int selectedIdx = MCTSNode.m_rnd.nextInt(children.length);
+			int selectedIdx = m_rnd.nextInt(children.length);
 			selected = children[selectedIdx];
 
 		} else {
 			// pick the best Q.
 			double bestValue = -Double.MAX_VALUE;
 			for (MCTSNode child : children) {
-				double hvVal = child.totValue + MCTSNode.m_rnd.nextDouble()
+				double hvVal = child.totValue + m_rnd.nextDouble()
 						* MCTSNode.epsilon;
 
 				// small sampleRandom numbers: break ties in unexpanded nodes
@@ -256,48 +673,69 @@ public class MCTSNode {
 	}
 
 	public double rollOut() {
+		long start = System.nanoTime();
+		rolloutActions = 0;
+
+		// states of a deterministic game that were rolled out often enough in
+		// this tick get their mean value
+		boolean usesCache = context.gameFeatures != null && context.gameFeatures.deterministic;
+		if (usesCache) {
+			if (keyState != state) {
+				// the key scans the grid, once per state is enough
+				rolloutKey = RolloutValueCache.key(state);
+				keyState = state;
+			}
+			double estimate = context.rolloutValues.estimate(rolloutKey);
+			if (!Double.isNaN(estimate)) {
+				rolloutPolicy.getStatistics().recordEstimate(start);
+				return estimate;
+			}
+		}
+
 		StateObservation rollerState = state.copy();
 
 		// int thisDepth = this.m_depth;
 		int thisDepth = 0; // here we guarantee "ROLLOUT_DEPTH" more rollout
 		// after MCTS/expand is finished
 		double previousScore;
-		// rollout with random actions for "ROLLOUT_DEPTH" times
-		while (!finishRollout(rollerState, thisDepth)) {
+		int stableSteps = 0;
+		AttractivityDelta rolloutDelta = context.getRolloutDelta();
+		rolloutDelta.begin(rollerState);
+		rolloutPolicy.begin(rollerState);
+		// rollout with the actions of the policy for "ROLLOUT_DEPTH" times,
+		// or until the score stays put
+		while (!finishRollout(rollerState, thisDepth) && stableSteps < STABLE_STEPS) {
 			previousScore = rollerState.getGameScore();
-			int action = MCTSNode.m_rnd
-					.nextInt(PersistentStorage.actions.length);
-			rollerState.advance(PersistentStorage.actions[action]);
-			PersistentStorage.iTypeAttractivity.updateAttraction(rollerState,
-					previousScore);
+			int action = rolloutPolicy.selectAction(rollerState, m_rnd);
+			rollerState.advance(context.actions[action]);
+			rolloutActions |= 1L << action;
+			rolloutDelta.collect(rollerState, previousScore);
 			thisDepth++;
+			stableSteps = (rollerState.getGameScore() == previousScore) ? stableSteps + 1 : 0;
 		}
 
-		// why do a random action???
-		//		previousScore = rollerState.getGameScore();
-		//		int action = MCTSNode.m_rnd.nextInt(PersistentStorage.actions.length);
-		//		rollerState.advance(PersistentStorage.actions[action]);
-		//		PersistentStorage.iTypeAttractivity.updateAttraction(rollerState,
-		//				previousScore);
-
-		// update our ItypeAttractivity (use the startingreward of the rollout, usefull? )
-		PersistentStorage.iTypeAttractivity.updateAttraction(rollerState,
-				PersistentStorage.startingReward);
+		// learn from the outcome of the last step w.r.t. the startingreward
+		// of the search. The collected updates are applied at backup.
+		rolloutDelta.finish(rollerState, context.getTick().startingReward);
 
 
 
 		// get current position and reward at that position due to the exploration map
-		double explRew = PersistentStorage.rewMap
+		double explRew = context.rewMap
 				.getRewardAtWorldPosition(rollerState.getAvatarPosition());
 
 
 		Vector2d curPos = rollerState.getAvatarPosition();
-		//System.out.println(PersistentStorage.MCTS_DEPTH_FIX +"   "+ PersistentStorage.MCTS_DEPTH_RUN + "   "+ m_depth);
-		int nSteps =  1+PersistentStorage.MCTS_DEPTH_FIX - (PersistentStorage.MCTS_DEPTH_RUN - m_depth); 
+		//System.out.println(context.MCTS_DEPTH_FIX +"   "+ context.MCTS_DEPTH_RUN + "   "+ m_depth);
+		int nSteps =  1+context.MCTS_DEPTH_FIX - (context.MCTS_DEPTH_RUN - m_depth); 
+		if (MACRO_LENGTH > 1) {
+			// the edges cover several ticks
+			nSteps = 1 + ticksFromSearchRoot();
+		}
 		// counts the number of Blocks we moved
 		double nonJitterRew = 0;
 		if(curPos.x > 0 ){
-			nonJitterRew = Math.abs((MCTSAgent.startingPos.x - curPos.x) ) + Math.abs((MCTSAgent.startingPos.y - curPos.y) ) ;
+			nonJitterRew = Math.abs((context.getTick().startingPos.x - curPos.x) ) + Math.abs((context.getTick().startingPos.y - curPos.y) ) ;
 			nonJitterRew /=  (rollerState.getBlockSize() * nSteps );
 		}
 		if(nonJitterRew >= 1)
@@ -305,18 +743,22 @@ public class MCTSNode {
 
 		// in 2D games is exploration and notJitter movements not that important
 		double multiplierExploration = 1;
-		if(PersistentStorage.actions.length < 4)
+		if(context.actions.length < 4)
 			multiplierExploration = 0.1;
 		// get a reward based on the distance to the different Itypes. 
 		// this can be closest ones, or only positives.... 
 		double distITypeRewNewDist = getNewExplITypeRewardNewDist(rollerState, nonJitterRew	);
 		
+		// get the potential of the diffusion map (resources attract, enemies repulse)
+		double diffusionRew = context.diffusionMap
+				.getValueAtWorldPosition(curPos);
+
 		// get a heuristic for wasting resources
-		double ressourceReward = ObservationTools.getRessourceDifferenceIndicator(rollerState)*0.05;
+		double ressourceReward = ObservationTools.getRessourceDifferenceIndicator(rollerState, context.getTick().previousAvatarRessources)*0.05;
 
 		// use a fraction of "explRew" as an additional reward (Not given by the
 		// Gamestats) the multiplication is just taking care of ignoring this distItype if we are stuck.
-		double additionalRew =(multiplierExploration*explRew/10 + distITypeRewNewDist/3 + multiplierExploration*nonJitterRew/20 + ressourceReward) / 2;
+		double additionalRew =(multiplierExploration*explRew/10 + distITypeRewNewDist/3 + multiplierExploration*nonJitterRew/20 + ressourceReward + diffusionRew/10) / 2;
 
 //		DecimalFormat df = new DecimalFormat("####0.0000");
 
@@ -324,35 +766,37 @@ public class MCTSNode {
 		//		System.out.println(": " + curPos.x + "   : " + curPos.y + "  "+ nSteps  );
 
 
-		int useRelativeReward = 1;
-		double normDelta = 0;
-		if (useRelativeReward == 0) {
-
-			double delta = value(rollerState) + additionalRew;
-			if (delta < curBounds[0])
-				curBounds[0] = delta;
-			if (delta > curBounds[1])
-				curBounds[1] = delta;
-
-			normDelta = Utils.normalise(delta, lastBounds[0], lastBounds[1]);
+		// get the relative reward, uct() scales its exploration to the range
+		// of these. Losses and wins are mapped below and above the range.
+		Types.WINNER winner = rollerState.getGameWinner();
+		boolean lost = rollerState.isGameOver() && winner == Types.WINNER.PLAYER_LOSES;
+		double normDelta;
+		if (lost) {
+			normDelta = normalizer.lossValue();
+		} else if (rollerState.isGameOver() && winner == Types.WINNER.PLAYER_WINS) {
+			normDelta = normalizer.winValue();
 		} else {
-			// get the relative reward
-			normDelta = (value(rollerState) - PersistentStorage.startingReward)
-					+ additionalRew;
+			normDelta = (rollerState.getGameScore() - context.getTick().startingReward) + additionalRew;
+			normalizer.observe(normDelta);
 		}
 		int useTrappedHeuristics = 1;
 		//		if (useTrappedHeuristics == 1) {
-		//			normDelta += 0.1f * (PersistentStorage.numberOfBlockedMovables - trapHeuristic(rollerState));
+		//			normDelta += 0.1f * (context.getTick().numberOfBlockedMovables - trapHeuristic(rollerState));
 		//		}
 
 		// try to punish positions where we died in some rollouts
-		if(normDelta < -100){
+		if(lost){
 			if(this.parent != null){
 				Vector2d lastPos = this.parent.state.getAvatarPosition();
-				PersistentStorage.rewMap.setRewardAtWorldPosition(lastPos, -0.4);
+				context.rewMap.setRewardAtWorldPosition(lastPos, -0.4);
 			}
 		}
 
+		rolloutPolicy.end(normDelta, lost);
+		rolloutPolicy.getStatistics().record(thisDepth, start, normDelta, lost);
+		if (usesCache) {
+			context.rolloutValues.add(rolloutKey, normDelta, lost);
+		}
 		return normDelta;
 	}
 
@@ -361,13 +805,14 @@ public class MCTSNode {
 		
 		// THIS IS REALLY UGLY BUT IM TO LAZY TO CLEAN THAT UP NOW AND IT WORKS OK ;)
 		double totRew = 0;
+		Map<Integer, PathPlanner> pathPlannerMaps = context.getTick().pathPlannerMaps;
 		Vector2d pos = state.getAvatarPosition();
 
 		int blockSize = state.getBlockSize();
 
 		int avaX = floorDiv((int) (pos.x + 0.1), blockSize);
 		int avaY = floorDiv((int) (pos.y + 0.1), blockSize);		
-		//		double maxPath  = (PersistentStorage.rewMap.getDimension().height + PersistentStorage.rewMap.getDimension().width);
+		//		double maxPath  = (context.rewMap.getDimension().height + context.rewMap.getDimension().width);
 
 		int count1 = 0;
 
@@ -380,25 +825,16 @@ public class MCTSNode {
 					// only look at the closest rewarding/punishing npc
 					for(int i = 0; i<1; i++){
 
-						double npcAttractionValue = 0;
+						double npcAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(npcs.get(i));
 
-						try {
-							npcAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(npcs.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(npcs.get(i));
-							npcAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(npcs.get(i).itype);
-						}
-
-						if( MCTSAgent.pathPlannerMaps.containsKey(npcs.get(i).itype) ){
+						if( pathPlannerMaps.containsKey(npcs.get(i).itype) ){
 							//compute the current distance to the closest enemy 
-							double distIntSteps = MCTSAgent.pathPlannerMaps.get(npcs.get(i).itype).getStepsQtyToGoal(avaX,avaY);
-							double maxPath  = MCTSAgent.pathPlannerMaps.get(npcs.get(i).itype).getMaximumSteps();
+							double distIntSteps = pathPlannerMaps.get(npcs.get(i).itype).getStepsQtyToGoal(avaX,avaY);
+							double maxPath  = pathPlannerMaps.get(npcs.get(i).itype).getMaximumSteps();
 							double dist = distIntSteps / maxPath;
 
-							if(npcAttractionValue < 0 && PersistentStorage.actions.length%2 != 0 && npcAttractionValue > -1.5 )
+							if(npcAttractionValue < 0 && context.actions.length%2 != 0 && npcAttractionValue > -1.5 )
 								totRew += Math.abs(npcAttractionValue)/(dist*dist+0.05)*1/50;
 							else{
 								// case of an enemy that killed us in a previous game
@@ -429,21 +865,13 @@ public class MCTSNode {
 					//only look at the closest rewarding/punishing npc
 					for(int i = 0; i< 1; i++){
 
-						double resAttractionValue = 0;
-						try {
-							resAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(res.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(res.get(i));
-							resAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(res.get(i).itype);
-						}
+						double resAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(res.get(i));
 
-						if( MCTSAgent.pathPlannerMaps.containsKey(res.get(i).itype) ){
+						if( pathPlannerMaps.containsKey(res.get(i).itype) ){
 							//compute the current distance to the closest enemy 
-							double distIntSteps = ((MCTSAgent.pathPlannerMaps).get(res.get(i).itype)).getStepsQtyToGoal(avaX,avaY);
-							double maxPath  = MCTSAgent.pathPlannerMaps.get(res.get(i).itype).getMaximumSteps();
+							double distIntSteps = (pathPlannerMaps.get(res.get(i).itype)).getStepsQtyToGoal(avaX,avaY);
+							double maxPath  = pathPlannerMaps.get(res.get(i).itype).getMaximumSteps();
 							double dist = distIntSteps / maxPath;
 							totRew += 3*resAttractionValue/(dist*dist+0.05)*1/50;
 
@@ -464,22 +892,14 @@ public class MCTSNode {
 					//only look at the closest rewarding/punishing npc
 					for(int i = 0; i< 1; i++){
 
-						double movAttractionValue = 0;
-						try {
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(mov.get(i));
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
-						}
+						double movAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(mov.get(i));
 
-						if( MCTSAgent.pathPlannerMaps.containsKey(mov.get(i).itype) ){
+						if( pathPlannerMaps.containsKey(mov.get(i).itype) ){
 							//compute the current distance to the closest enemy 
 							if(movAttractionValue > 0){
-								double distIntSteps = MCTSAgent.pathPlannerMaps.get(mov.get(i).itype).getStepsQtyToGoal(avaX,avaY);
-								double maxPath  = MCTSAgent.pathPlannerMaps.get(mov.get(i).itype).getMaximumSteps();
+								double distIntSteps = pathPlannerMaps.get(mov.get(i).itype).getStepsQtyToGoal(avaX,avaY);
+								double maxPath  = pathPlannerMaps.get(mov.get(i).itype).getMaximumSteps();
 								double dist = distIntSteps / maxPath;
 	
 								totRew += 2*movAttractionValue/(dist*dist+0.05)*1/50;
@@ -504,7 +924,7 @@ public class MCTSNode {
 		double totRew = 0;
 
 		Vector2d pos = state.getAvatarPosition();
-		double maxDist = Math.sqrt(Math.pow(PersistentStorage.rewMap.getDimension().height * state.getBlockSize(),2)  +  Math.pow(PersistentStorage.rewMap.getDimension().height* state.getBlockSize(),2) );
+		double maxDist = Math.sqrt(Math.pow(context.rewMap.getDimension().height * state.getBlockSize(),2)  +  Math.pow(context.rewMap.getDimension().height* state.getBlockSize(),2) );
 
 		int blockSize = state.getBlockSize();
 		//		int avaX = floorDiv((int) (pos.x + 0.1), blockSize);
@@ -512,7 +932,7 @@ public class MCTSNode {
 		//		PathPlanner pp = new PathPlanner();
 		//		pp.updateStart(avaX,avaY);
 		//		
-		//		double maxPath  = (PersistentStorage.rewMap.getDimension().height + PersistentStorage.rewMap.getDimension().width);
+		//		double maxPath  = (context.rewMap.getDimension().height + context.rewMap.getDimension().width);
 
 
 		int count1 = 0;
@@ -539,21 +959,12 @@ public class MCTSNode {
 						//						double distIntSteps = pp.getDistance(avaX,avaY);
 						//						double dist = distIntSteps / maxPath;
 
-						double npcAttractionValue = 0;
-
-						try {
-							npcAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(npcs.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(npcs.get(i));
-							npcAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(npcs.get(i).itype);
-						}
+						double npcAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(npcs.get(i));
 
 						double dist = Math.sqrt(Math.pow(pos.x-npcPos.x,2) + Math.pow(pos.y-npcPos.y,2))/maxDist;
 
-						if(npcAttractionValue < 0 && PersistentStorage.actions.length%2 != 0 && npcAttractionValue > -1.5 )
+						if(npcAttractionValue < 0 && context.actions.length%2 != 0 && npcAttractionValue > -1.5 )
 							totRew += Math.abs(npcAttractionValue)/(dist*dist+0.1)*1/10;
 						else{
 							// case of an enemy that killed us in a previous game
@@ -592,16 +1003,8 @@ public class MCTSNode {
 						//						double distIntSteps = pp.getDistance(avaX,avaY);
 						//						double dist = distIntSteps /maxPath;
 
-						double resAttractionValue = 0;
-						try {
-							resAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(res.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(res.get(i));
-							resAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(res.get(i).itype);
-						}
+						double resAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(res.get(i));
 						double dist = Math.sqrt(Math.pow((pos.x-resPosition.x),2) + Math.pow(pos.y-resPosition.y,2)) /maxDist;
 						totRew += 3*resAttractionValue/(dist*dist+0.1)*1/10;
 						count1++;
@@ -630,16 +1033,8 @@ public class MCTSNode {
 						//						double distIntSteps = pp.getDistance(avaX,avaY);
 						//						double dist = distIntSteps /maxPath;
 
-						double movAttractionValue = 0;
-						try {
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
-						} catch (java.lang.NullPointerException e) {
-							PersistentStorage.iTypeAttractivity
-							.putIfAbsent(mov.get(i));
-							movAttractionValue = PersistentStorage.iTypeAttractivity
-									.get(mov.get(i).itype);
-						}
+						double movAttractionValue = context.iTypeAttractivity
+								.putIfAbsent(mov.get(i));
 						double dist = Math.sqrt(Math.pow(pos.x-movPosition.x,2) + Math.pow(pos.y-movPosition.y,2) ) /maxDist;
 						totRew += 2*movAttractionValue/(dist*dist+0.1)*1/10;
 						count1++;
@@ -656,26 +1051,8 @@ public class MCTSNode {
 	}
 
 
-	public double value(StateObservation a_gameState) {
-
-		boolean gameOver = a_gameState.isGameOver();
-		Types.WINNER win = a_gameState.getGameWinner();
-		double rawScore = a_gameState.getGameScore();
-
-		if (gameOver && win == Types.WINNER.PLAYER_LOSES) {
-			//return -Double.MAX_VALUE/10;
-			return HUGE_NEGATIVE_REWARD;
-		}
-
-		if (gameOver && win == Types.WINNER.PLAYER_WINS) {
-			return HUGE_POSITIVE_REWARD;
-		}
-
-		return rawScore;
-	}
-
 	public boolean finishRollout(StateObservation rollerState, int depth) {
-		if (depth >= PersistentStorage.ROLLOUT_DEPTH) { // rollout end condition
+		if (depth >= context.ROLLOUT_DEPTH) { // rollout end condition
 			// occurs
 			// "ROLLOUT_DEPTH" after the
 			// MCTS/expand is finished
@@ -688,7 +1065,7 @@ public class MCTSNode {
 		return false;
 	}
 
-	public void backUp(MCTSNode node, double result, int leaveNode) {
+	public void backUp(MCTSNode node, double result) {
 		//		// add the rewards and visits the the chosen branch of the tree
 		//		MCTSNode n = node;
 		//		
@@ -715,24 +1092,28 @@ public class MCTSNode {
 		//				result /= 2;
 		//		}
 
+		// learn the attractivities from the events of the rollout at once
+		AttractivityDelta rolloutDelta = context.getRolloutDelta();
+		context.iTypeAttractivity.apply(rolloutDelta);
+		rolloutDelta.clear();
+
 		MCTSNode n = node;
+		// the actions played after the node on the way down and in the rollout
+		long playedActions = node.rolloutActions;
 
 		while (n != null) {
 			n.nVisits++;
-			if (result < -1000){
-
-				if(leaveNode == 1){
-					n.totValue  = n.totValue/4 -10000;
-				}
-				else{
-					n.totValue  = n.totValue/4 -10;
-				}
+			// a death makes the mean of the subtree uncertain for a while
+			n.sumSquares += result * result;
+			n.updateAmaf(playedActions, result);
+			int index = (n.parent != null) ? n.parent.indexOf(n) : -1;
+			if (index >= 0) {
+				// (a node the parent replaced meanwhile gives no credit)
+				playedActions |= 1L << index;
 			}
-			else
-				n.totValue += result;
+			n.totValue += result;
 
 			n = n.parent;
-			leaveNode = 0;
 			// a little hack to compare deaths which are close by and those that
 			// are far away
 			if (result < 0)
@@ -741,6 +1122,35 @@ public class MCTSNode {
 
 	}
 
+	/**
+	 * Adds the result to the all-moves-as-first statistics of the played
+	 * actions.
+	 */
+	private void updateAmaf(long playedActions, double result) {
+		if (amafValue == null) {
+			amafValue = new double[children.length];
+			amafVisits = new int[children.length];
+		}
+		for (int i = 0; i < children.length; i++) {
+			if ((playedActions & (1L << i)) != 0) {
+				amafValue[i] += result;
+				amafVisits[i]++;
+			}
+		}
+	}
+
+	/**
+	 * @return the action leading to the child, -1 if it isn't one
+	 */
+	private int indexOf(MCTSNode child) {
+		for (int i = 0; i < children.length; i++) {
+			if (children[i] == child) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	public void backUpBest(MCTSNode node, double result) {
 		// add the rewards and visits the the chosen branch of the tree
 		MCTSNode n = node;
@@ -753,6 +1163,78 @@ public class MCTSNode {
 		}
 	}
 
+	/**
+	 * Cuts off the subtrees below this node that were visited at most
+	 * maxVisits times, the children of this node are kept.
+	 * 
+	 * @return the number of cut off subtrees
+	 */
+	public int pruneLowVisits(int maxVisits) {
+		int pruned = 0;
+		for (MCTSNode child : children) {
+			if (child == null) {
+				continue;
+			}
+			for (int i = 0; i < child.children.length; i++) {
+				MCTSNode grandChild = child.children[i];
+				if (grandChild != null && grandChild.nVisits <= maxVisits) {
+					child.children[i] = null;
+					pool.discard(grandChild);
+					pruned++;
+				}
+			}
+			pruned += child.pruneLowVisits(maxVisits);
+		}
+		return pruned;
+	}
+
+	/**
+	 * Scales the visits of the subtree down, keeping the mean values, so new
+	 * results outweigh the old ones sooner.
+	 */
+	public void decay(double factor) {
+		// a visited node stays visited, bestAction() divides by the visits
+		int visits = (nVisits > 0) ? Math.max(1, (int) (nVisits * factor)) : 0;
+		totValue = (nVisits > 0) ? totValue * visits / nVisits : 0;
+		sumSquares = (nVisits > 0) ? sumSquares * visits / nVisits : 0;
+		nVisits = visits;
+		if (amafVisits != null) {
+			for (int i = 0; i < amafVisits.length; i++) {
+				int amaf = (int) (amafVisits[i] * factor);
+				amafValue[i] = (amafVisits[i] > 0) ? amafValue[i] * amaf / amafVisits[i] : 0;
+				amafVisits[i] = amaf;
+			}
+		}
+		for (MCTSNode child : children) {
+			if (child != null) {
+				child.decay(factor);
+			}
+		}
+	}
+
+	/**
+	 * @return the standard deviation of the mean values of the visited
+	 *         children, 0 if the search can't tell the actions apart
+	 */
+	public double childValueSpread() {
+		int n = 0;
+		double sum = 0;
+		double sumSquares = 0;
+		for (int i = 0; i < children.length; i++) {
+			if (children[i] != null && children[i].nVisits > 0) {
+				double mean = children[i].totValue / children[i].nVisits;
+				sum += mean;
+				sumSquares += mean * mean;
+				n++;
+			}
+		}
+		if (n < 2) {
+			return 0;
+		}
+		double mean = sum / n;
+		return Math.sqrt(Math.max(0, sumSquares / n - mean * mean));
+	}
+
 	public int mostVisitedAction() {
 		int selected = -1;
 		double bestValue = -Double.MAX_VALUE;
@@ -768,7 +1250,7 @@ public class MCTSNode {
 					allEqual = false;
 				}
 
-				if (children[i].nVisits + MCTSNode.m_rnd.nextDouble() * epsilon > bestValue) {
+				if (children[i].nVisits + m_rnd.nextDouble() * epsilon > bestValue) {
 					bestValue = children[i].nVisits;
 					selected = i;
 				}
@@ -792,7 +1274,8 @@ public class MCTSNode {
 		int selected = -1;
 		double bestValue = -Double.MAX_VALUE;
 
-		for (int i = 0; i < children.length; i++) {
+		// (only actions, not the paths to the targets of macro actions)
+		for (int i = 0; i < context.actions.length; i++) {
 
 			// previous implementation lead to the tendency to choose the later
 			// actions thats why the avatar
@@ -800,7 +1283,7 @@ public class MCTSNode {
 			if (children[i] != null) {
 				// we divide the reward by the number of times that we actually
 				// tried that child ( the sqrt is there just for fun ;) )
-				double disturbedChildRew = (children[i].totValue + (MCTSNode.m_rnd
+				double disturbedChildRew = (children[i].totValue + (m_rnd
 						.nextDouble() - 0.5) * epsilon)
 						/(children[i].nVisits);
 				if (disturbedChildRew > bestValue
@@ -833,8 +1316,8 @@ public class MCTSNode {
 				if (cur.children[i] != null) {
 					allDeaths = allDeaths
 							&& cur.children[i].isDeadEnd(max_depth - 1);
-				} else {
-					if (MCTSNode.m_rnd.nextDouble() > fear_of_unknown) {
+				} else if (i != cur.nilSlot()) {
+					if (m_rnd.nextDouble() > fear_of_unknown) {
 						// Well, there's an unknown path, and we're not worried
 						// - so let's guess it isn't a dead end!
 						//						if (Agent.isVerbose) {
@@ -869,97 +1352,42 @@ public class MCTSNode {
 		}
 	}
 
+	/**
+	 * @return if another action may be expanded, i.e. there is an unused
+	 *         action and the node has fewer living children than progressive
+	 *         widening allows for its visits
+	 */
 	public boolean notFullyExpanded() {
-		for (MCTSNode tn : children) {
+		boolean hasUnused = false;
+		int living = 0;
+		for (int i = 0; i < nilSlot(); i++) {
+			MCTSNode tn = children[i];
 			if (tn == null) {
-				return true;
+				hasUnused |= isExpandable(i);
+			} else if (!tn.isLoseState()) {
+				living++;
 			}
 		}
-		return false;
+		return hasUnused && living < widthLimit();
 	}
 
-	public static double trapHeuristic(StateObservation a_gameState) {
+	/**
+	 * @return the number of living children the node may have
+	 */
+	public int widthLimit() {
+		int limit = (int) (WIDENING_CONSTANT * Math.pow(nVisits + 1, WIDENING_EXPONENT));
+		return Math.max(MIN_CHILDREN, limit);
+	}
 
+	public static double trapHeuristic(StateObservation a_gameState, ObservationFeatures features) {
 		// return the number of movable objects that are apparently blocked, at
 		// least for 1 move
-		ArrayList<Observation>[] movePos = null;
-		movePos = a_gameState.getMovablePositions();
-		int isTrapped = 0;
-		int isCompletelyFree = 0;
-		double blockSquare = a_gameState.getBlockSize()
-				* a_gameState.getBlockSize();
-		if (movePos != null) {
-			for (int j = 0; j < movePos.length; j++) {
-				for (int i = 0; i < movePos[j].size(); i++) {
-					Vector2d mPPos = movePos[j].get(i).position;
-
-					ArrayList<Observation>[] trappedByImmovables = a_gameState
-							.getImmovablePositions(mPPos);
-
-					ArrayList<Observation>[] trappedByMovables = a_gameState
-							.getMovablePositions(mPPos);
-
-					if (trappedByImmovables != null
-							&& trappedByImmovables.length > 0) {
-						// if surrounded by 3 objects, its trapped
-						if (trappedByImmovables[0].size() >= 3) {
-							if ((trappedByImmovables[0].get(0).sqDist - blockSquare) < 1
-									&& (trappedByImmovables[0].get(1).sqDist - blockSquare) < 1
-									&& (trappedByImmovables[0].get(2).sqDist - blockSquare) < 1) {
-								isTrapped++;
-							}
-						}
-						// if surrounded by a corner its trapped
-						if (trappedByImmovables[0].size() >= 2) {
-							if ((trappedByImmovables[0].get(0).sqDist - blockSquare) < 1
-									&& (trappedByImmovables[0].get(1).sqDist - blockSquare) < 1
-									&& Math.abs((trappedByImmovables[0].get(1).position.x - trappedByImmovables[0]
-											.get(0).position.x)
-											* (trappedByImmovables[0].get(1).position.y - trappedByImmovables[0]
-													.get(0).position.y)) > 1) {
-								isTrapped++;
-							} else {
-								// if surrounded by two immovable objects and a
-								// movable object its trapped
-								if (trappedByMovables != null
-										&& trappedByMovables.length > 0) {
-									if (trappedByMovables[0].size() > 1) {
-										if ((trappedByImmovables[0].get(0).sqDist - blockSquare) < 1
-												&& (trappedByImmovables[0]
-														.get(1).sqDist - blockSquare) < 1
-														&& (trappedByMovables[0].get(1).sqDist - blockSquare) < 1) {
-											isTrapped++;
-										}
-									}
-								}
-							}
-						}
-					}
-
-					if (trappedByImmovables != null
-							&& trappedByImmovables.length > 0
-							&& trappedByMovables != null
-							&& trappedByMovables.length > 0) {
-						// reward movable objects that are not surrounded by
-						// anything
-						if (trappedByImmovables[0].size() > 0) {
-							if (trappedByMovables[0].size() > 1) {
-								if ((trappedByImmovables[0].get(0).sqDist - blockSquare) > 1
-										&& (trappedByMovables[0].get(1).sqDist - blockSquare) > 1) {
-									isCompletelyFree++;
-								}
-							} else {
-								if (trappedByImmovables[0].get(0).sqDist
-										- blockSquare > 1) {
-									isCompletelyFree++;
-								}
-
-							}
-						}
-					}
-				}
-			}
+		if (!ObservationTools.hasMovables(features)) {
+			return 0;
 		}
+		SpatialIndex index = ObservationTools.getSpatialIndex(a_gameState);
+		int isTrapped = ObservationTools.countTraps(index, false);
+		int isCompletelyFree = ObservationTools.countTraps(index, true);
 		// reward the completely free objects not as much as the trapped ones.
 		return isTrapped - isCompletelyFree / 2;
 	}
@@ -0,0 +1,83 @@
+package agents.mcts;
+
+import java.util.Random;
+
+import core.game.StateObservation;
+import ontology.Types;
+import ontology.Types.ACTIONS;
+
+/**
+ * Plays random actions, but never moves back the way the avatar just came,
+ * so the rollouts get further away from the start instead of jittering.
+ */
+public class NoBacktrackRolloutPolicy implements RolloutPolicy {
+
+	private final int actionQty;
+	/** the opposite movement of each action, -1 if there is none */
+	private final int[] opposite;
+	private int lastAction = -1;
+	private final RolloutStatistics statistics = new RolloutStatistics("noBacktrack");
+
+	public NoBacktrackRolloutPolicy(ACTIONS[] actions) {
+		actionQty = actions.length;
+		opposite = new int[actionQty];
+		for (int i = 0; i < actionQty; i++) {
+			opposite[i] = indexOf(actions, oppositeOf(actions[i]));
+		}
+	}
+
+	private static ACTIONS oppositeOf(ACTIONS action) {
+		switch (action) {
+		case ACTION_LEFT:
+			return Types.ACTIONS.ACTION_RIGHT;
+		case ACTION_RIGHT:
+			return Types.ACTIONS.ACTION_LEFT;
+		case ACTION_UP:
+			return Types.ACTIONS.ACTION_DOWN;
+		case ACTION_DOWN:
+			return Types.ACTIONS.ACTION_UP;
+		default:
+			return null;
+		}
+	}
+
+	private static int indexOf(ACTIONS[] actions, ACTIONS action) {
+		for (int i = 0; i < actions.length; i++) {
+			if (actions[i] == action) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void begin(StateObservation rollerState) {
+		lastAction = -1;
+	}
+
+	@Override
+	public int selectAction(StateObservation rollerState, Random rnd) {
+		int back = (lastAction >= 0) ? opposite[lastAction] : -1;
+		int action;
+		if (back < 0) {
+			action = rnd.nextInt(actionQty);
+		} else {
+			// draw from the other actions
+			action = rnd.nextInt(actionQty - 1);
+			if (action >= back) {
+				action++;
+			}
+		}
+		lastAction = action;
+		return action;
+	}
+
+	@Override
+	public void end(double value, boolean lost) {
+	}
+
+	@Override
+	public RolloutStatistics getStatistics() {
+		return statistics;
+	}
+}
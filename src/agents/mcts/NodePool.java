@@ -0,0 +1,146 @@
+package agents.mcts;
+
+import java.util.ArrayDeque;
+
+import core.game.StateObservation;
+
+/**
+ * Recycles the nodes of the subtrees the search cut off. Cutting the tree in
+ * initWithOldTree() used to turn all siblings of the new root into garbage at
+ * once, right at the start of the next tick. Now the discarded subtrees are
+ * queued and taken apart a few nodes per iteration ({@link #reclaim(int)}),
+ * their nodes (and children arrays) go to a bounded free list which
+ * expand() takes its nodes from.
+ *
+ * A discarded node must not be referenced by the search anymore. The pool
+ * belongs to one tree and is only used by the thread that searches it, which
+ * is why it keeps the statistics of the macro edges of the tree as well.
+ */
+public class NodePool {
+
+	/** most nodes kept on the free list, the rest is left to the collector */
+	public static int MAX_FREE = 20000;
+
+	private MCTSNode[] free = new MCTSNode[64];
+	private int freeQty = 0;
+
+	/** roots of discarded subtrees that are not taken apart yet */
+	private final ArrayDeque<MCTSNode> discarded = new ArrayDeque<MCTSNode>();
+
+	/** changes when the states stored in the tree went stale */
+	private int stateGeneration = 0;
+
+	// statistics
+	private long created = 0;
+	private long reused = 0;
+	private long reclaimed = 0;
+	private long macroEdges = 0;
+	private long macroTicks = 0;
+	private long pathEdges = 0;
+
+	/**
+	 * @return a fresh node below the parent, recycled if possible
+	 */
+	public MCTSNode obtain(StateObservation state, MCTSNode parent) {
+		if (freeQty > 0) {
+			MCTSNode node = free[--freeQty];
+			free[freeQty] = null;
+			node.reset(state, parent);
+			reused++;
+			return node;
+		}
+		created++;
+		return new MCTSNode(state, parent);
+	}
+
+	/**
+	 * Queues a subtree that was cut off the tree.
+	 */
+	public void discard(MCTSNode subtree) {
+		if (subtree != null) {
+			discarded.add(subtree);
+		}
+	}
+
+	/**
+	 * Takes apart up to maxNodes nodes of the discarded subtrees.
+	 *
+	 * @return the number of nodes taken apart
+	 */
+	public int reclaim(int maxNodes) {
+		int n = 0;
+		while (n < maxNodes && !discarded.isEmpty()) {
+			MCTSNode node = discarded.poll();
+			for (int i = 0; i < node.children.length; i++) {
+				if (node.children[i] != null) {
+					discarded.add(node.children[i]);
+					node.children[i] = null;
+				}
+			}
+			// let go of the state right away, it is the bigger part
+			node.state = null;
+			node.parent = null;
+			if (freeQty < MAX_FREE) {
+				if (freeQty == free.length) {
+					MCTSNode[] grown = new MCTSNode[Math.min(free.length * 2, MAX_FREE)];
+					System.arraycopy(free, 0, grown, 0, freeQty);
+					free = grown;
+				}
+				free[freeQty++] = node;
+			}
+			n++;
+		}
+		reclaimed += n;
+		return n;
+	}
+
+	/**
+	 * Lets the collector take the free list and the discarded subtrees right
+	 * away.
+	 */
+	public void trim() {
+		free = new MCTSNode[64];
+		freeQty = 0;
+		discarded.clear();
+	}
+
+	/**
+	 * @return the generation of the states stored in the tree, a node whose
+	 *         state is from an older one has to simulate it again
+	 */
+	public int getStateGeneration() {
+		return stateGeneration;
+	}
+
+	/**
+	 * Marks the states stored in the tree as stale, e.g. when the real state
+	 * differs from the one the search sampled.
+	 */
+	public void invalidateStates() {
+		stateGeneration++;
+	}
+
+	/**
+	 * Counts an edge of the tree that covers several ticks, see
+	 * MCTSNode.MACRO_LENGTH.
+	 * 
+	 * @param path
+	 *            if the edge follows a path planner
+	 */
+	public void countMacroEdge(int ticks, boolean path) {
+		macroEdges++;
+		macroTicks += ticks;
+		if (path) {
+			pathEdges++;
+		}
+	}
+
+	public void printStatistics() {
+		System.out.println("NODES::created:" + created + "|reused:" + reused + "|reclaimed:" + reclaimed + "|free:"
+				+ freeQty + "|pending:" + discarded.size());
+		if (MCTSNode.MACRO_LENGTH > 1) {
+			System.out.format("MACRO::edges:%d|ticksPerEdge:%.2f|pathEdges:%d%n", macroEdges,
+					(macroEdges > 0) ? (double) macroTicks / macroEdges : 0, pathEdges);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package agents.mcts;
+
+/**
+ * Tracks the range of the rollout results of a search, so the exploration
+ * term of UCT is on the same scale as the values. The results are score
+ * differences plus heuristics and their spread depends on the game: with a
+ * fixed K a game with large scores hardly explores, one without scores hardly
+ * exploits.
+ *
+ * Mapping the means to [0, 1] by the range doesn't change their order, so
+ * instead the exploration term is multiplied by the range ({@link #scale()}).
+ * Losses and wins are mapped to TERMINAL_RANGES ranges below and above it
+ * ({@link #lossValue()}, {@link #winValue()}), so they stay on the scale of
+ * the game and don't widen the range themselves. The range of a search
+ * starts with the range of the search before, until enough results of the
+ * new one came in. It belongs to one tree, like the {@link NodePool}.
+ */
+public class RewardNormalizer {
+
+	/** results of the search before its own range is used */
+	public static int MIN_SAMPLES = 32;
+
+	/**
+	 * smallest range: K and the heuristics are tuned to results of about
+	 * this spread, in narrower ranges the search got too greedy and stuck
+	 */
+	public static double MIN_RANGE = 1;
+
+	/** ranges a loss is below the worst result and a win above the best */
+	public static double TERMINAL_RANGES = 2;
+
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private int samples = 0;
+	private double lastMin = 0;
+	private double lastMax = 0;
+	private double lastRange = 1;
+
+	// statistics
+	private long searches = 0;
+	private double rangeSum = 0;
+	private double minRangeSeen = Double.POSITIVE_INFINITY;
+	private double maxRangeSeen = 0;
+
+	/**
+	 * Starts a new search, keeps the range of the last one until the new one
+	 * has enough results.
+	 */
+	public void begin() {
+		if (samples >= MIN_SAMPLES) {
+			lastMin = min;
+			lastMax = max;
+			lastRange = range();
+			searches++;
+			rangeSum += lastRange;
+			minRangeSeen = Math.min(minRangeSeen, lastRange);
+			maxRangeSeen = Math.max(maxRangeSeen, lastRange);
+		}
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		samples = 0;
+	}
+
+	/**
+	 * Adds the result of a rollout.
+	 */
+	public void observe(double result) {
+		if (Double.isNaN(result) || Double.isInfinite(result)) {
+			return;
+		}
+		if (result < min) {
+			min = result;
+		}
+		if (result > max) {
+			max = result;
+		}
+		samples++;
+	}
+
+	private double range() {
+		return Math.max(MIN_RANGE, max - min);
+	}
+
+	/**
+	 * @return the factor of the exploration term, the range of the results
+	 */
+	public double scale() {
+		return (samples >= MIN_SAMPLES) ? range() : lastRange;
+	}
+
+	/**
+	 * @return the result of a rollout that ended in a loss
+	 */
+	public double lossValue() {
+		return ((samples >= MIN_SAMPLES) ? min : lastMin) - TERMINAL_RANGES * scale();
+	}
+
+	/**
+	 * @return the result of a rollout that ended in a win
+	 */
+	public double winValue() {
+		return ((samples >= MIN_SAMPLES) ? max : lastMax) + TERMINAL_RANGES * scale();
+	}
+
+	public void printStatistics() {
+		System.out.format("NORMALIZER::searches:%d|meanRange:%.3f|minRange:%.3f|maxRange:%.3f|scale:%.3f%n",
+				searches, (searches > 0) ? rangeSum / searches : 0, (searches > 0) ? minRangeSeen : 0,
+				maxRangeSeen, scale());
+	}
+}
@@ -0,0 +1,39 @@
+package agents.mcts;
+
+import java.util.Random;
+
+import core.game.StateObservation;
+
+/**
+ * Picks the actions of the rollouts in {@link MCTSNode#rollOut()}. One policy
+ * is used per game, chosen by {@link MCTSAgent} from the game features.
+ *
+ * Implementations must not allocate per step, rollouts are the innermost loop
+ * of the search. They are only used by the thread that searches.
+ */
+public interface RolloutPolicy {
+
+	/**
+	 * Starts a new rollout from the state.
+	 */
+	void begin(StateObservation rollerState);
+
+	/**
+	 * @return the next action (index into the actions of the context)
+	 */
+	int selectAction(StateObservation rollerState, Random rnd);
+
+	/**
+	 * Ends the rollout with the value it was backed up with, so the policy can
+	 * learn from it.
+	 * 
+	 * @param lost
+	 *            if the rollout ended in a loss
+	 */
+	void end(double value, boolean lost);
+
+	/**
+	 * @return the rollouts done with this policy
+	 */
+	RolloutStatistics getStatistics();
+}
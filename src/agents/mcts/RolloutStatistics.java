@@ -0,0 +1,64 @@
+package agents.mcts;
+
+/**
+ * Rollout steps per second and the values the rollouts of one policy
+ * returned, to compare the policies. Deaths are counted separately, their
+ * values would drag down the mean. Rollouts that were replaced by a
+ * cached estimate are counted as estimates.
+ */
+public class RolloutStatistics {
+
+	public final String name;
+
+	private long rollouts = 0;
+	private long steps = 0;
+	private long nanos = 0;
+	private long deaths = 0;
+	private long estimates = 0;
+	private long estimateNanos = 0;
+	private double sumValue = 0;
+	private double sumSquares = 0;
+
+	public RolloutStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param startNanos
+	 *            System.nanoTime() at the start of the rollout
+	 */
+	public void record(int rolloutSteps, long startNanos, double value, boolean lost) {
+		rollouts++;
+		steps += rolloutSteps;
+		nanos += System.nanoTime() - startNanos;
+		if (lost) {
+			deaths++;
+		} else {
+			sumValue += value;
+			sumSquares += value * value;
+		}
+	}
+
+	/**
+	 * @param startNanos
+	 *            System.nanoTime() at the start of the rollout
+	 */
+	public void recordEstimate(long startNanos) {
+		estimates++;
+		estimateNanos += System.nanoTime() - startNanos;
+	}
+
+	public double getStepsPerSecond() {
+		return (nanos > 0) ? steps * 1e9 / nanos : 0;
+	}
+
+	public void printStatistics() {
+		long n = rollouts - deaths;
+		double mean = (n > 0) ? sumValue / n : 0;
+		double deviation = (n > 0) ? Math.sqrt(Math.max(0, sumSquares / n - mean * mean)) : 0;
+		System.out.format(
+				"ROLLOUT::%s|rollouts:%d|steps:%d|steps/s:%.0f|value:%.3f+-%.3f|deaths:%d|estimates:%d|rolloutMs:%.3f|estimateMs:%.3f%n",
+				name, rollouts, steps, getStepsPerSecond(), mean, deviation, deaths, estimates,
+				(rollouts > 0) ? nanos / 1e6 / rollouts : 0, (estimates > 0) ? estimateNanos / 1e6 / estimates : 0);
+	}
+}
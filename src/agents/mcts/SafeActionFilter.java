@@ -0,0 +1,82 @@
+package agents.mcts;
+
+import agents.misc.AgentContext;
+import agents.misc.GameClassifier;
+import agents.misc.SafeActions;
+import agents.misc.TimeBudget;
+import core.game.StateObservation;
+import ontology.Types;
+import tools.ElapsedCpuTimer;
+
+/**
+ * Advances every action of the current state and ACTION_NIL a few times before
+ * the search and keeps the share of samples in which the avatar died. The search then
+ * doesn't spend iterations on actions that are known to be lethal, instead of
+ * finding out through isLoseState() and isDeadEnd() after expanding them.
+ *
+ * The result is sampled once per tick and published in the context (see
+ * {@link AgentContext#getSafeActions(int)}), HBFS uses it as well. The
+ * samples are advanced on the calling thread: the copies of a state share the
+ * collision effects of the game, and some effects keep state of their own
+ * (e.g. WallStop), so copies must not be advanced at the same time.
+ */
+public class SafeActionFilter {
+
+	/** samples per action in stochastic games, one is enough otherwise */
+	public static final int SAMPLES = 3;
+
+	/**
+	 * @return the lethal actions of the state, sampled as long as the time
+	 *         budget allows it or taken from the context if they were sampled
+	 *         in this tick already
+	 */
+	public static SafeActions evaluate(StateObservation so, AgentContext context, ElapsedCpuTimer elapsedTimer) {
+		return evaluate(so, context, elapsedTimer, TimeBudget.MCTS_ITERATION);
+	}
+
+	/**
+	 * @param kind
+	 *            the work of the calling search a sample is timed like, its
+	 *            estimate is known even if the other search never ran
+	 */
+	public static SafeActions evaluate(StateObservation so, AgentContext context, ElapsedCpuTimer elapsedTimer,
+			int kind) {
+		SafeActions cached = context.getSafeActions(so.getGameTick());
+		if (cached != null) {
+			return cached;
+		}
+
+		GameClassifier.GameFeatures features = context.gameFeatures;
+		int samplesPerAction = (features != null && features.deterministic) ? 1 : SAMPLES;
+
+		// ACTION_NIL is sampled last
+		int n = context.actions.length + 1;
+		int[] deaths = new int[n];
+		int[] samples = new int[n];
+		StateObservation[] deathStates = new StateObservation[n];
+
+		for (int s = 0; s < samplesPerAction; s++) {
+			for (int i = 0; i < n; i++) {
+				if (!context.timeBudget.hasTimeFor(elapsedTimer, kind)) {
+					break;
+				}
+				StateObservation next = so.copy();
+				next.advance((i < context.actions.length) ? context.actions[i] : Types.ACTIONS.ACTION_NIL);
+				count(i, next, deaths, samples, deathStates);
+			}
+		}
+
+		SafeActions safeActions = new SafeActions(so.getGameTick(), context.actions, deaths, samples, deathStates);
+		context.publishSafeActions(safeActions);
+		return safeActions;
+	}
+
+	private static void count(int actionIdx, StateObservation next, int[] deaths, int[] samples,
+			StateObservation[] deathStates) {
+		samples[actionIdx]++;
+		if (next.isGameOver() && next.getGameWinner() == Types.WINNER.PLAYER_LOSES) {
+			deaths[actionIdx]++;
+			deathStates[actionIdx] = next;
+		}
+	}
+}
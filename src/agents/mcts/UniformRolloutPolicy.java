@@ -0,0 +1,36 @@
+package agents.mcts;
+
+import java.util.Random;
+
+import core.game.StateObservation;
+
+/**
+ * Plays uniformly random actions.
+ */
+public class UniformRolloutPolicy implements RolloutPolicy {
+
+	private final int actionQty;
+	private final RolloutStatistics statistics = new RolloutStatistics("uniform");
+
+	public UniformRolloutPolicy(int actionQty) {
+		this.actionQty = actionQty;
+	}
+
+	@Override
+	public void begin(StateObservation rollerState) {
+	}
+
+	@Override
+	public int selectAction(StateObservation rollerState, Random rnd) {
+		return rnd.nextInt(actionQty);
+	}
+
+	@Override
+	public void end(double value, boolean lost) {
+	}
+
+	@Override
+	public RolloutStatistics getStatistics() {
+		return statistics;
+	}
+}
@@ -0,0 +1,286 @@
+package agents.misc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ontology.Types;
+import ontology.Types.ACTIONS;
+import tools.Vector2d;
+import agents.misc.GameClassifier.GameFeatures;
+import agents.misc.GameClassifier.GameType;
+import agents.misc.pathplanning.PathPlanner;
+import core.game.StateObservation;
+
+/**
+ * Everything the agents know about the game they are currently playing. One
+ * context is created per game and handed to the sub agents, their nodes and
+ * the path planners, so that several games can run in one JVM at the same
+ * time. The runner of each game passes the seed and the iteration mode (see
+ * {@link RunSettings}), and the next game in its slot takes what it carries
+ * over from this one (see {@link PersistentStorage}).
+ *
+ * The parameters below (K, ROLLOUT_DEPTH, MCTS_DEPTH_RUN, ...) belong to this
+ * game only. The engines of a game take turns on one thread, MCTS moves
+ * MCTS_DEPTH_RUN along with the root of its search.
+ *
+ * Values that are fixed for one tick of the search are published as a
+ * {@link TickSnapshot}, which the nodes read during the search.
+ *
+ */
+public class AgentContext {
+
+	/**
+	 * The values that stay fixed during the search of one tick. The path
+	 * planners are the only mutable part: they are planned before the tick is
+	 * published, the search only reads them, and every tick gets new ones.
+	 */
+	public static final class TickSnapshot {
+
+		// keeps track of the reward at the start of the MCTS search
+		public final double startingReward;
+
+		public final double numberOfBlockedMovables;
+
+		// the position of the avatar at the start of the search
+		public final Vector2d startingPos;
+
+		// the avatar resources at the start of the search
+		public final Map<Integer, Integer> previousAvatarRessources;
+
+		// path planners towards the closest sprite of an itype
+		public final Map<Integer, PathPlanner> pathPlannerMaps;
+
+		// the itypes the macro actions of MCTS follow the path planners to
+		public final int[] macroTargets;
+
+		public TickSnapshot(double startingReward, double numberOfBlockedMovables, Vector2d startingPos,
+				Map<Integer, Integer> previousAvatarRessources, Map<Integer, PathPlanner> pathPlannerMaps,
+				int[] macroTargets) {
+			this.startingReward = startingReward;
+			this.numberOfBlockedMovables = numberOfBlockedMovables;
+			this.startingPos = startingPos.copy();
+			this.previousAvatarRessources = Collections
+					.unmodifiableMap(new HashMap<Integer, Integer>(previousAvatarRessources));
+			this.pathPlannerMaps = Collections.unmodifiableMap(new HashMap<Integer, PathPlanner>(pathPlannerMaps));
+			this.macroTargets = macroTargets.clone();
+		}
+	}
+
+	public final ACTIONS[] actions;
+
+	/**
+	 * If the avatar can take an action, by its ordinal.
+	 */
+	public final boolean[] isAvailable;
+
+	/**
+	 * How the runner wants this game to be played.
+	 */
+	public final RunSettings settings;
+
+	/**
+	 * The random generator of the searches in this game, seeded by the
+	 * runner if the game has to be reproducible.
+	 */
+	public final Random random;
+
+	/**
+	 * an exploration reward map that is laid over the game-world to reward
+	 * places that haven't been visited lately
+	 */
+	public final RewardMap rewMap;
+
+	/**
+	 * The adjacency map is a map containing positions you can move to at the
+	 * current moment.
+	 */
+	public final AdjacencyMap adjacencyMap;
+
+	/**
+	 * a potential field with resources as positive and enemies as negative
+	 * sources, relaxed a little every tick
+	 */
+	public final DiffusionMap diffusionMap;
+
+	/*
+	 * iTypeAttractivity of the game, might be shared with the following games
+	 * (see PersistentStorage)
+	 */
+	public ITypeAttractivity iTypeAttractivity;
+
+	/**
+	 * The number of games played before this one in its slot.
+	 */
+	public final int gameIndex;
+
+	/**
+	 * The last state the agent saw and how it expected the game to end, the
+	 * next game looks at them for the reason of a death.
+	 */
+	public StateObservation lastState = null;
+	public double lastWinLoseExpectation = 0;
+
+	/**
+	 * The category of the game and its labels, null if the game type was
+	 * known before (see {@link GameClassifier})
+	 */
+	public GameType gameType = GameType.NOT_DETERMINED;
+	public GameFeatures gameFeatures = null;
+
+	/*
+	 * diagnostics of the state hashes of HBFS, see HBFSAgent.TRACK_HASHING
+	 */
+	public int hashCollisions = 0;
+	public int hashesEqual = 0;
+	public final List<Integer> hashList = new LinkedList<Integer>();
+
+	// ## Parameters
+	public double K = Math.sqrt(2);
+	public int MCTS_AVOID_DEATH_DEPTH = 2;
+	// random steps after the tree policy, 0 scores the leaves right away
+	public int ROLLOUT_DEPTH = Integer.getInteger("bladerunner.rolloutDepth", 0);
+
+	/*
+	 * running and fixed MCTS_DEPTH, first increments to counter the increment
+	 * of the depth of the cut trees. The later stays fixed
+	 */
+	public int MCTS_DEPTH_FIX = 3;
+	public int MCTS_DEPTH_RUN = MCTS_DEPTH_FIX;
+
+	/**
+	 * The attractivity updates of the rollout currently running on each
+	 * thread, applied at backup.
+	 */
+	private final ThreadLocal<AttractivityDelta> rolloutDeltas = new ThreadLocal<AttractivityDelta>() {
+		@Override
+		protected AttractivityDelta initialValue() {
+			return new AttractivityDelta();
+		}
+	};
+
+	/**
+	 * The values of the rollouts of the current tick by state, cleared with
+	 * every new tick.
+	 */
+	public final RolloutValueCache rolloutValues = new RolloutValueCache();
+
+	/**
+	 * States along an ACTION_NIL sequence from the start of the game, left
+	 * over by the game classifier. The agents use them as warm start for their
+	 * search.
+	 */
+	public final ArrayList<StateObservation> probeStates = new ArrayList<StateObservation>();
+
+	/**
+	 * The estimated cost of the search iterations in this game, decides when
+	 * the searches have to stop.
+	 */
+	public final TimeBudget timeBudget;
+
+	/**
+	 * Counts the sprite lists the heuristics extracted and shared.
+	 */
+	public final ObservationFeatures.Statistics featureStatistics = new ObservationFeatures.Statistics();
+
+	// the features of the state the heuristics looked at last
+	private ObservationFeatures features;
+
+	private volatile TickSnapshot tick;
+
+	private volatile SafeActions safeActions;
+
+	/**
+	 * Creates the context of a new game.
+	 *
+	 * @param so
+	 *            state observation at the start of the game
+	 * @param iTypeAttractivity
+	 *            the attractivity to learn into
+	 * @param settings
+	 *            the seed and the iteration mode of the runner
+	 * @param gameIndex
+	 *            the number of games played before
+	 */
+	public AgentContext(StateObservation so, ITypeAttractivity iTypeAttractivity, RunSettings settings,
+			int gameIndex) {
+		// Get the actions in an array.
+		actions = so.getAvailableActions().toArray(new Types.ACTIONS[0]);
+		isAvailable = new boolean[Types.ACTIONS.values().length];
+		for (ACTIONS action : actions) {
+			isAvailable[action.ordinal()] = true;
+		}
+		this.settings = settings;
+		random = (settings.seed != null) ? new Random(settings.seed) : new Random();
+		timeBudget = new TimeBudget(settings.fixedIterations);
+
+		// initialize exploration reward map with 1
+		rewMap = new RewardMap(so, 0.3);
+
+		// initialize the adjacency map with the current state observation
+		adjacencyMap = new AdjacencyMap(so);
+
+		// initialize the diffusion map on top of the adjacency map
+		diffusionMap = new DiffusionMap(so);
+
+		this.iTypeAttractivity = iTypeAttractivity;
+		this.gameIndex = gameIndex;
+
+		tick = new TickSnapshot(0, 0, so.getAvatarPosition(), new HashMap<Integer, Integer>(),
+				new HashMap<Integer, PathPlanner>(), new int[0]);
+	}
+
+	/**
+	 * Publishes the values of the search of a new tick.
+	 */
+	public void publishTick(TickSnapshot snapshot) {
+		tick = snapshot;
+		rolloutValues.clear();
+	}
+
+	/**
+	 * @return the values of the search of the current tick
+	 */
+	public TickSnapshot getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the attractivity updates of the rollout running on this thread
+	 */
+	public AttractivityDelta getRolloutDelta() {
+		return rolloutDeltas.get();
+	}
+
+	/**
+	 * @return the sprite lists of the state, shared with the heuristics that
+	 *         asked for the same state before. Only the features of the last
+	 *         state are kept, that is the real one of the tick.
+	 */
+	public ObservationFeatures getFeatures(StateObservation so) {
+		if (features == null || !features.isOf(so)) {
+			features = new ObservationFeatures(so, featureStatistics);
+		}
+		return features;
+	}
+
+	/**
+	 * Publishes the lethal actions of a tick.
+	 */
+	public void publishSafeActions(SafeActions safeActions) {
+		this.safeActions = safeActions;
+	}
+
+	/**
+	 * @return the lethal actions sampled in a tick, null if they weren't
+	 *         sampled (yet)
+	 */
+	public SafeActions getSafeActions(int gameTick) {
+		SafeActions actions = safeActions;
+		return (actions != null && actions.gameTick == gameTick) ? actions : null;
+	}
+}
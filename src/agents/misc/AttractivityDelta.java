@@ -0,0 +1,143 @@
+package agents.misc;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ontology.Types;
+import core.game.Event;
+import core.game.StateObservation;
+
+/**
+ * Collects the attractivity updates of one rollout. Only the events produced
+ * since the last collect on the rollout's state lineage are looked at, so the
+ * learning cost per step is proportional to the new events and not to the
+ * length of the event history. The collected updates are applied at once to
+ * the {@link ITypeAttractivity} at backup.
+ *
+ * One delta belongs to one rollout at a time, the attractivity it is applied
+ * to can be shared.
+ */
+public class AttractivityDelta {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] itypes = new int[INITIAL_CAPACITY];
+	private double[] updates = new double[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * events with a game step below are already consumed
+	 */
+	private int sinceTick = 0;
+
+	/**
+	 * Starts a new rollout from the given state. The events that lead to this
+	 * state are considered consumed.
+	 *
+	 * @param stateObs
+	 *            the state the rollout starts from
+	 */
+	public void begin(StateObservation stateObs) {
+		size = 0;
+		sinceTick = stateObs.getGameTick();
+	}
+
+	/**
+	 * Collects the updates for all events since the last collect. The update
+	 * value is based on the score change of the step.
+	 *
+	 * @param stateObs
+	 *            the state after the step
+	 * @param previousScore
+	 *            the score before the step
+	 */
+	public void collect(StateObservation stateObs, double previousScore) {
+		collectSince(stateObs, getUpdateValue(stateObs, previousScore), sinceTick);
+		sinceTick = stateObs.getGameTick();
+	}
+
+	/**
+	 * Collects the updates for the events of the last game tick with the
+	 * outcome of the whole rollout. This is the learning signal if the rollout
+	 * did not advance at all.
+	 *
+	 * @param stateObs
+	 *            the state at the end of the rollout
+	 * @param startingScore
+	 *            the score at the start of the search
+	 */
+	public void finish(StateObservation stateObs, double startingScore) {
+		collectSince(stateObs, getUpdateValue(stateObs, startingScore),
+				stateObs.getGameTick() - 1);
+	}
+
+	private void collectSince(StateObservation stateObs, double updateVal, int tick) {
+		if (updateVal == 0) {
+			return;
+		}
+		Iterator<Event> eventIterator = stateObs.getEventsHistory()
+				.descendingIterator();
+		while (eventIterator.hasNext()) {
+			Event currEvent = eventIterator.next();
+			if (currEvent.gameStep < tick) {
+				break;
+			}
+			if (currEvent.passiveTypeId != 0) { // exclude walls=0
+				add(currEvent.passiveTypeId, updateVal);
+			}
+		}
+	}
+
+	private void add(int itype, double updateVal) {
+		if (size == itypes.length) {
+			itypes = Arrays.copyOf(itypes, size * 2);
+			updates = Arrays.copyOf(updates, size * 2);
+		}
+		itypes[size] = itype;
+		updates[size] = updateVal;
+		size++;
+	}
+
+	/**
+	 * TODO: Maybe it would be good to make a difference between Avatar and
+	 * FromAvatar Events. TODO: Maybe there is a better learning rule
+	 *
+	 * @return the attractivity update for the events of a step
+	 */
+	public static double getUpdateValue(StateObservation stateObs, double previousScore) {
+		double updateVal = 0;
+		double scoreIncrease = stateObs.getGameScore() - previousScore;
+		boolean gameOver = stateObs.isGameOver();
+		Types.WINNER win = stateObs.getGameWinner();
+
+		if (scoreIncrease > 0) {
+			updateVal = 0.2;
+		}
+		if (scoreIncrease < 0) {
+			updateVal = -0.1;
+		}
+		if (gameOver && win == Types.WINNER.PLAYER_LOSES) {
+			updateVal = -0.2;
+		}
+		if (gameOver && win == Types.WINNER.PLAYER_WINS) {
+			updateVal = 1;
+		}
+		return updateVal;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getIType(int i) {
+		return itypes[i];
+	}
+
+	public double getUpdate(int i) {
+		return updates[i];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+}
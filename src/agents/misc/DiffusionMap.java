@@ -0,0 +1,334 @@
+package agents.misc;
+
+import java.util.ArrayList;
+
+import tools.Vector2d;
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * A potential field laid over the game-world next to the exploration
+ * {@link RewardMap}. Resources act as positive sources and NPCs as sources
+ * with the sign of their iType attractivity. The field is spread over the
+ * cells without walls with a geometric decay per step, so
+ * the value of a cell roughly reflects the attractivity of the closest sources
+ * and the walking distance to them.
+ *
+ * The field is relaxed incrementally: every tick only a few Gauss-Seidel
+ * sweeps on a flat array are done within a fixed time budget, continuing where
+ * the last tick stopped. Once a sweep changes nothing the field has converged
+ * and the relaxation rests until the sources or the walls change. Reading the
+ * field is O(1), so rollouts can use it freely.
+ *
+ */
+public class DiffusionMap {
+
+	/**
+	 * Decay of the field per cell of distance to a source.
+	 */
+	public static double DECAY = 0.85;
+
+	/**
+	 * The itype of the walls, the framework registers them first.
+	 */
+	public static final int WALL_ITYPE = 0;
+
+	/**
+	 * Default time budget per tick for the relaxation sweeps in microseconds.
+	 */
+	public static long RELAXATION_BUDGET_MICROS = 300;
+
+	/**
+	 * Smallest change of a cell that counts, the field left by a removed
+	 * source only decays geometrically towards 0.
+	 */
+	public static double TOLERANCE = 1e-6;
+
+	/**
+	 * Positive and negative part of the field. They are propagated separately
+	 * so that enemies do not cancel out resources next to them.
+	 */
+	private double[] positive;
+	private double[] negative;
+
+	/** The sources of the current tick */
+	private double[] positiveSource;
+	private double[] negativeSource;
+
+	/** cells of the current sources, to clear them without a full scan */
+	private int[] sourceCells;
+	private int sourceQty = 0;
+
+	/** the sources of the last tick, to see if they changed */
+	private int[] lastSourceCells;
+	private double[] lastPositiveSource;
+	private double[] lastNegativeSource;
+
+	private boolean[] blocked;
+	private int width;
+	private int height;
+	private int blockSize;
+
+	/** the next cell to be relaxed and the sweep direction */
+	private int cursor = 0;
+	private boolean forward = true;
+
+	/** number of full sweeps done so far */
+	private int sweeps = 0;
+
+	/** whether a cell changed in the current sweep */
+	private boolean changed = false;
+	/** the last full sweep changed nothing */
+	private boolean converged = false;
+
+	/**
+	 * Initialize the diffusion map with the state observation. The walls are
+	 * taken from the observation grid, all field values start at 0.
+	 *
+	 * @param stateObs
+	 *            a StateObservation
+	 */
+	public DiffusionMap(StateObservation stateObs) {
+		blockSize = stateObs.getBlockSize();
+		ArrayList<Observation>[][] grid = stateObs.getObservationGrid();
+		width = grid.length;
+		height = grid[0].length;
+
+		int cells = width * height;
+		positive = new double[cells];
+		negative = new double[cells];
+		positiveSource = new double[cells];
+		negativeSource = new double[cells];
+		sourceCells = new int[cells];
+		lastSourceCells = new int[cells];
+		lastPositiveSource = new double[cells];
+		lastNegativeSource = new double[cells];
+		blocked = new boolean[cells];
+		updateWalls(stateObs);
+	}
+
+	private int index(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Replaces the sources of the field by the resources and NPCs of the given
+	 * state and takes the walls that were destroyed or built since the last
+	 * tick. Only the cells of the previous sources are cleared. If anything
+	 * changed, the field is relaxed again.
+	 *
+	 * @param stateObs
+	 *            the current state observation
+	 * @param features
+	 *            the sprite lists of the state
+	 * @param attractivity
+	 *            the attractivity of the iTypes
+	 */
+	public void updateSources(StateObservation stateObs, ObservationFeatures features,
+			ITypeAttractivity attractivity) {
+		int lastSourceQty = sourceQty;
+		for (int i = 0; i < sourceQty; i++) {
+			int c = sourceCells[i];
+			lastSourceCells[i] = c;
+			lastPositiveSource[i] = positiveSource[c];
+			lastNegativeSource[i] = negativeSource[c];
+			positiveSource[c] = 0;
+			negativeSource[c] = 0;
+		}
+		sourceQty = 0;
+
+		addSources(features.getResourcesPositions(), attractivity);
+		addSources(features.getNPCPositions(), attractivity);
+
+		boolean sourcesChanged = sourceQty != lastSourceQty;
+		// the source cells are distinct, so the same number of cells with the
+		// same strengths are the same sources
+		for (int i = 0; i < lastSourceQty && !sourcesChanged; i++) {
+			int c = lastSourceCells[i];
+			sourcesChanged = positiveSource[c] != lastPositiveSource[i] || negativeSource[c] != lastNegativeSource[i];
+		}
+		if (updateWalls(stateObs) || sourcesChanged) {
+			// the cells the current sweep already relaxed didn't see it
+			converged = false;
+			changed = true;
+		}
+	}
+
+	/**
+	 * Marks the cells with a wall as blocked.
+	 *
+	 * @return whether a cell changed
+	 */
+	private boolean updateWalls(StateObservation stateObs) {
+		ArrayList<Observation>[][] grid = stateObs.getObservationGrid();
+		boolean wallsChanged = false;
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				boolean wall = false;
+				ArrayList<Observation> sprites = grid[x][y];
+				for (int i = 0; i < sprites.size() && !wall; i++) {
+					wall = sprites.get(i).itype == WALL_ITYPE;
+				}
+				int c = index(x, y);
+				if (blocked[c] != wall) {
+					blocked[c] = wall;
+					wallsChanged = true;
+				}
+			}
+		}
+		return wallsChanged;
+	}
+
+	private void addSources(ArrayList<Observation>[] positions, ITypeAttractivity attractivity) {
+		if (positions == null) {
+			return;
+		}
+		for (ArrayList<Observation> obsList : positions) {
+			for (int i = 0; i < obsList.size(); i++) {
+				Observation obs = obsList.get(i);
+				addSourceAtWorldPosition(obs.position, attractivity.putIfAbsent(obs));
+			}
+		}
+	}
+
+	/**
+	 * Adds a source with the given strength at the world position. Positive
+	 * strengths attract, negative ones repulse.
+	 *
+	 * @param posVec
+	 *            position in world pixels
+	 * @param strength
+	 *            the strength of the source
+	 */
+	public void addSourceAtWorldPosition(Vector2d posVec, double strength) {
+		int X = RewardMap.floorDiv((int) (posVec.x + 0.1), blockSize);
+		int Y = RewardMap.floorDiv((int) (posVec.y + 0.1), blockSize);
+		if (X < 0 || Y < 0 || X >= width || Y >= height || strength == 0) {
+			return;
+		}
+		int c = index(X, Y);
+		if (positiveSource[c] == 0 && negativeSource[c] == 0) {
+			sourceCells[sourceQty++] = c;
+		}
+		if (strength > 0) {
+			positiveSource[c] = Math.max(positiveSource[c], strength);
+		} else {
+			negativeSource[c] = Math.max(negativeSource[c], -strength);
+		}
+	}
+
+	/**
+	 * Relaxes the field until the time budget is used up or it converged.
+	 * Sweeps alternate between forward and backward raster order and continue
+	 * at the cell where the previous call stopped. With a fixed number of
+	 * search iterations (see {@link TimeBudget#isFixed()}) it relaxes one
+	 * sweep, whatever the clock says.
+	 *
+	 * @param budgetMicros
+	 *            time budget in microseconds
+	 * @param budget
+	 *            the time budget of the game
+	 * @return the number of relaxed cells
+	 */
+	public int relax(long budgetMicros, TimeBudget budget) {
+		long deadline = System.nanoTime() + budgetMicros * 1000;
+		int cells = positive.length;
+		int relaxed = 0;
+
+		while (!converged) {
+			relaxCell(cursor);
+			relaxed++;
+
+			boolean sweepDone = false;
+			if (forward) {
+				if (++cursor == cells) {
+					cursor = cells - 1;
+					forward = false;
+					sweepDone = true;
+				}
+			} else {
+				if (--cursor < 0) {
+					cursor = 0;
+					forward = true;
+					sweepDone = true;
+				}
+			}
+			if (sweepDone) {
+				sweeps++;
+				converged = !changed;
+				changed = false;
+			}
+
+			// checking the clock is more expensive than a cell, so do it
+			// once per row
+			if (relaxed % width == 0
+					&& (budget.isFixed() ? relaxed >= cells : System.nanoTime() > deadline)) {
+				break;
+			}
+		}
+		return relaxed;
+	}
+
+	private void relaxCell(int c) {
+		if (blocked[c]) {
+			setCell(c, positiveSource[c], negativeSource[c]);
+			return;
+		}
+		int x = c % width;
+		double pMax = 0;
+		double nMax = 0;
+		if (x > 0 && !blocked[c - 1]) {
+			pMax = Math.max(pMax, positive[c - 1]);
+			nMax = Math.max(nMax, negative[c - 1]);
+		}
+		if (x < width - 1 && !blocked[c + 1]) {
+			pMax = Math.max(pMax, positive[c + 1]);
+			nMax = Math.max(nMax, negative[c + 1]);
+		}
+		if (c >= width && !blocked[c - width]) {
+			pMax = Math.max(pMax, positive[c - width]);
+			nMax = Math.max(nMax, negative[c - width]);
+		}
+		if (c + width < positive.length && !blocked[c + width]) {
+			pMax = Math.max(pMax, positive[c + width]);
+			nMax = Math.max(nMax, negative[c + width]);
+		}
+		setCell(c, Math.max(positiveSource[c], DECAY * pMax), Math.max(negativeSource[c], DECAY * nMax));
+	}
+
+	private void setCell(int c, double p, double n) {
+		if (Math.abs(positive[c] - p) > TOLERANCE || Math.abs(negative[c] - n) > TOLERANCE) {
+			changed = true;
+		}
+		positive[c] = p;
+		negative[c] = n;
+	}
+
+	public double getValue(int X, int Y) {
+		if (X < 0 || Y < 0 || X >= width || Y >= height) {
+			return 0;
+		}
+		int c = index(X, Y);
+		return positive[c] - negative[c];
+	}
+
+	public double getValueAtWorldPosition(Vector2d posVec) {
+		int X = RewardMap.floorDiv((int) (posVec.x + 0.1), blockSize);
+		int Y = RewardMap.floorDiv((int) (posVec.y + 0.1), blockSize);
+		return getValue(X, Y);
+	}
+
+	public int getSweeps() {
+		return sweeps;
+	}
+
+	public void print() {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				System.out.printf("% .3f ", getValue(x, y));
+			}
+			System.out.println();
+		}
+		System.out.println();
+	}
+}
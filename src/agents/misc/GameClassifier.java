@@ -1,7 +1,12 @@
 package agents.misc;
 
+import java.util.ArrayList;
+
 import bladeRunner.Agent;
 import ontology.Types;
+import tools.ElapsedCpuTimer;
+import tools.Vector2d;
+import core.game.Observation;
 import core.game.StateObservation;
 
 public class GameClassifier {
@@ -12,39 +17,169 @@ public class GameClassifier {
 	public static final int testingSteps = 80;
 
 	/**
-	 * The game classification categories.
+	 * Detect movement by cheap features (sprite counts per category, NPC and
+	 * movable positions, event counts) instead of grid hashes and analyses.
+	 */
+	public static boolean USE_CHEAP_FEATURES = true;
+
+	/**
+	 * Number of differences after which we are confident that the game moves.
+	 */
+	public static final int CONFIDENT_DIFFERENCES = 2;
+
+	/**
+	 * Number of probe states handed to the agents as warm start.
+	 */
+	public static final int KEPT_PROBE_STATES = 4;
+
+	/**
+	 * Time budget of the whole classification in milliseconds.
+	 */
+	public static final long CLASSIFICATION_BUDGET = 100;
+
+	/**
+	 * Number of steps we advance the two copies in the determinism test.
+	 */
+	public static final int DETERMINISM_STEPS = 30;
+
+	/**
+	 * Number of ACTION_USE steps after which we look for sprites spawned by
+	 * the avatar.
+	 */
+	public static final int SHOOTING_STEPS = 3;
+
+	/**
+	 * The game classification categories. MOVING games are stochastic or we
+	 * couldn't prove them deterministic, new values go to the end (the names
+	 * are stored by the KnowledgeStore).
 	 *
 	 */
 	public enum GameType {
-		MOVING, STATIC, NOT_DETERMINED
+		MOVING, STATIC, NOT_DETERMINED, DETERMINISTIC_MOVING
 	}
 
 	/**
-	 * Our chosen game category
+	 * The labels of a game. A game can be several of them at once, e.g. a
+	 * deterministic puzzle or a stochastic shooter.
 	 */
-	static GameType gameType;
+	public static class GameFeatures {
+		public boolean moving = false;
+		public boolean stochastic = false;
+		/** if the determinism test ran to the end */
+		public boolean deterministic = false;
+		/** no NPCs, but things to push around */
+		public boolean puzzle = false;
+		/** ACTION_USE spawns sprites */
+		public boolean shooter = false;
 
-	public static GameType determineGameType(StateObservation so) {
-		gameType = GameType.NOT_DETERMINED;
+		// action set
+		public int numActions = 0;
+		public boolean hasUse = false;
+		public boolean onlyHorizontal = true;
+
+		/** milliseconds the classification took */
+		public long elapsed = 0;
+
+		@Override
+		public String toString() {
+			return "moving:" + moving + "|stochastic:" + stochastic + "|deterministic:" + deterministic + "|puzzle:"
+					+ puzzle + "|shooter:" + shooter + "|actions:" + numActions + "|use:" + hasUse
+					+ "|horizontal:" + onlyHorizontal + "|ms:" + elapsed;
+		}
+	}
 
-		if (hasMovement(so, testingSteps)) {
+	public static GameType determineGameType(StateObservation so, AgentContext context) {
+		GameType gameType = GameType.NOT_DETERMINED;
+
+		GameFeatures features = classify(so, context);
+
+		if (!features.moving) {
+			gameType = GameType.STATIC;
+		} else if (features.deterministic && !features.shooter) {
+			gameType = GameType.DETERMINISTIC_MOVING;
+		} else {
 			gameType = GameType.MOVING;
+		}
+
+		gameType = useGameType(gameType, context);
+		context.gameFeatures = features;
+		return gameType;
+
+	}
+
+	/**
+	 * Labels the game within CLASSIFICATION_BUDGET milliseconds. Tests that
+	 * don't fit in the budget leave their labels at the safe default
+	 * (stochastic games are searched by MCTS).
+	 *
+	 * @param so
+	 *            The state observation at the start of the game.
+	 * @param context
+	 *            The game context receiving the probe states.
+	 * @return The labels of the game.
+	 */
+	public static GameFeatures classify(StateObservation so, AgentContext context) {
+		ElapsedCpuTimer budget = new ElapsedCpuTimer();
+		budget.setMaxTimeMillis(CLASSIFICATION_BUDGET);
+		GameFeatures features = new GameFeatures();
+
+		// action set
+		features.numActions = context.actions.length;
+		for (Types.ACTIONS action : context.actions) {
+			if (action == Types.ACTIONS.ACTION_USE) {
+				features.hasUse = true;
+			} else if (action == Types.ACTIONS.ACTION_UP || action == Types.ACTIONS.ACTION_DOWN) {
+				features.onlyHorizontal = false;
+			}
+		}
+
+		// movement
+		if (USE_CHEAP_FEATURES) {
+			features.moving = hasMovementCheap(so, testingSteps, context, budget);
 		} else {
-			gameType = GameType.STATIC;
+			features.moving = hasMovement(so, testingSteps);
+		}
+
+		// determinism, unknown games are treated as stochastic
+		if (!budget.exceededMaxTime()) {
+			int result = testDeterminism(so, context.actions, DETERMINISM_STEPS, budget);
+			features.stochastic = result != 0;
+			features.deterministic = result == 0;
+		} else {
+			features.stochastic = true;
 		}
 
+		// shooting
+		if (features.hasUse && !budget.exceededMaxTime()) {
+			features.shooter = isShooter(so, SHOOTING_STEPS, budget);
+		}
+
+		features.puzzle = !features.stochastic && !hasSprites(so.getNPCPositions())
+				&& hasSprites(so.getMovablePositions());
+
+		features.elapsed = budget.elapsedMillis();
+		if (Agent.isVerbose) {
+			System.out.println("CLASSIFIER::" + features);
+		}
+		return features;
+	}
+
+	/**
+	 * Sets up the game context for a game type, either classified or known
+	 * from a previous run.
+	 */
+	public static GameType useGameType(GameType gameType, AgentContext context) {
 		if (gameType == GameType.MOVING) {
 			System.out.println("CLASSIFIER::Movement Detected.");
+		} else if (gameType == GameType.DETERMINISTIC_MOVING) {
+			System.out.println("CLASSIFIER::Deterministic Movement Detected.");
 		} else if (gameType == GameType.STATIC) {
-			PersistentStorage.MCTS_DEPTH_RUN += 20;
+			context.MCTS_DEPTH_RUN += 20;
 			System.out.println("CLASSIFIER::Static Game.");
 
 		}
-		return gameType;
-
-	}
-
-	public static GameType getGameType() {
+		context.gameType = gameType;
+		context.gameFeatures = null;
 		return gameType;
 	}
 
@@ -126,4 +261,163 @@ public class GameClassifier {
 
 	}
 
+	/**
+	 * Test if the game has movement in it by cheap features of the states
+	 * along an ACTION_NIL sequence. Stops as soon as we are confident. The
+	 * first probe states are stored in the context, so that the agents can
+	 * start their search with them.
+	 * 
+	 * @param so
+	 *            The state observation.
+	 * @param testingSteps
+	 *            The number of testing steps we advance the so.
+	 * @param context
+	 *            The game context receiving the probe states.
+	 * @param budget
+	 *            The time budget of the test.
+	 * @return If the game has movement or not, true if the time ran out
+	 *         before we saw any.
+	 */
+	public static boolean hasMovementCheap(StateObservation so, int testingSteps, AgentContext context,
+			ElapsedCpuTimer budget) {
+
+		context.probeStates.clear();
+		StateObservation probe = so.copy();
+
+		long features0 = 0;
+		int nDifferences = 0;
+
+		// advance twice as a workaround for some bugs, see hasMovement
+		for (int k = -2; k < testingSteps && !probe.isGameOver(); k++) {
+			if (budget.exceededMaxTime()) {
+				// not enough steps to rule movement out
+				return true;
+			}
+
+			probe.advance(Types.ACTIONS.ACTION_NIL);
+			if (context.probeStates.size() < KEPT_PROBE_STATES) {
+				context.probeStates.add(probe.copy());
+			}
+
+			long features1 = getCheapFeatures(probe);
+			if (k >= 0 && features0 != features1) {
+				if (Agent.isVerbose) {
+					System.out.println("CLASSIFIER::Feature difference after " + k + " step(s).");
+				}
+				nDifferences += 1;
+			}
+			if (nDifferences >= CONFIDENT_DIFFERENCES) break;
+
+			features0 = features1;
+		}
+		return nDifferences > 0;
+
+	}
+
+	/**
+	 * @return a hash of the sprite counts per category, the NPC and movable
+	 *         positions and the number of events.
+	 */
+	public static long getCheapFeatures(StateObservation so) {
+		long features = so.getEventsHistory().size();
+		features = features * 31 + getPositionFeatures(so.getNPCPositions());
+		features = features * 31 + getPositionFeatures(so.getMovablePositions());
+		features = features * 31 + getCountFeatures(so.getResourcesPositions());
+		features = features * 31 + getCountFeatures(so.getImmovablePositions());
+		features = features * 31 + getCountFeatures(so.getPortalsPositions());
+		return features;
+	}
+
+	private static long getCountFeatures(ArrayList<Observation>[] positions) {
+		long features = 0;
+		if (positions != null) {
+			for (ArrayList<Observation> obsList : positions) {
+				features = features * 17 + obsList.size();
+			}
+		}
+		return features;
+	}
+
+	private static long getPositionFeatures(ArrayList<Observation>[] positions) {
+		long features = 0;
+		if (positions != null) {
+			for (ArrayList<Observation> obsList : positions) {
+				features = features * 17 + obsList.size();
+				for (int i = 0; i < obsList.size(); i++) {
+					Vector2d pos = obsList.get(i).position;
+					features = features * 31 + (long) (pos.x * 1031 + pos.y);
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Test if the game is deterministic by advancing two copies with the same
+	 * actions and comparing them after every step.
+	 * 
+	 * @param so
+	 *            The state observation.
+	 * @param actions
+	 *            The available actions, played in turn.
+	 * @param testingSteps
+	 *            The number of steps we advance the copies.
+	 * @param budget
+	 *            The time budget of the test.
+	 * @return 0 if deterministic, 1 if stochastic, -1 if out of time.
+	 */
+	public static int testDeterminism(StateObservation so, Types.ACTIONS[] actions, int testingSteps,
+			ElapsedCpuTimer budget) {
+		StateObservation copy1 = so.copy();
+		StateObservation copy2 = so.copy();
+
+		for (int k = 0; k < testingSteps; k++) {
+			if (budget.exceededMaxTime()) {
+				return -1;
+			}
+			// stay in place most of the time, so we don't die immediately
+			Types.ACTIONS action = (k % 3 == 2) ? actions[(k / 3) % actions.length] : Types.ACTIONS.ACTION_NIL;
+			copy1.advance(action);
+			copy2.advance(action);
+
+			if (copy1.getGameScore() != copy2.getGameScore() || copy1.isGameOver() != copy2.isGameOver()
+					|| getCheapFeatures(copy1) != getCheapFeatures(copy2)) {
+				if (Agent.isVerbose) {
+					System.out.println("CLASSIFIER::Copies differ after " + k + " step(s).");
+				}
+				return 1;
+			}
+			if (copy1.isGameOver()) {
+				break;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Test if using spawns sprites from the avatar, false if the time budget
+	 * runs out first.
+	 */
+	public static boolean isShooter(StateObservation so, int testingSteps, ElapsedCpuTimer budget) {
+		StateObservation probe = so.copy();
+		for (int k = 0; k < testingSteps && !probe.isGameOver() && !budget.exceededMaxTime(); k++) {
+			probe.advance(Types.ACTIONS.ACTION_USE);
+			if (hasSprites(probe.getFromAvatarSpritesPositions())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasSprites(ArrayList<Observation>[] positions) {
+		if (positions != null) {
+			for (ArrayList<Observation> obsList : positions) {
+				if (!obsList.isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 }
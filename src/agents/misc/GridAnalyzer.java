@@ -0,0 +1,172 @@
+package agents.misc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import ontology.Types;
+import agents.misc.ObservationTools.DefaultAnalysis;
+import core.game.Event;
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * Computes the {@link DefaultAnalysis} of a node transition like
+ * {@link ObservationTools#analyze}, but with one pass over the parent grid
+ * (positions of the movables) and one pass over the grid of the node. All
+ * bookkeeping is done in primitive arrays indexed by obsID that are kept from
+ * call to call, entries are invalidated by a stamp instead of clearing the
+ * arrays.
+ *
+ * One analyzer belongs to one search, it is not thread safe.
+ */
+public class GridAnalyzer {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** itype + 1 of the root observations, 0 if not in the root */
+	private int[] rootIType = new int[INITIAL_CAPACITY];
+	private int rootObsNumber = 0;
+
+	/** obsIDs counted in the current call */
+	private int[] seenStamp = new int[INITIAL_CAPACITY];
+
+	/** positions of the movables in the parent */
+	private int[] parentStamp = new int[INITIAL_CAPACITY];
+	private double[] parentX = new double[INITIAL_CAPACITY];
+	private double[] parentY = new double[INITIAL_CAPACITY];
+
+	private int stamp = 0;
+
+	/**
+	 * Sets the state the creations, destructions and transforms are counted
+	 * against.
+	 */
+	public void setRoot(StateObservation root) {
+		Arrays.fill(rootIType, 0);
+		rootObsNumber = 0;
+		ArrayList<Observation>[][] grid = root.getObservationGrid();
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[i].length; j++) {
+				ArrayList<Observation> cell = grid[i][j];
+				for (int k = 0; k < cell.size(); k++) {
+					Observation obs = cell.get(k);
+					if (obs.itype != 0) {
+						ensureCapacity(obs.obsID);
+						if (rootIType[obs.obsID] == 0) {
+							rootObsNumber++;
+						}
+						rootIType[obs.obsID] = obs.itype + 1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Analyzes the transition parentSo -> so w.r.t. the root.
+	 */
+	public DefaultAnalysis analyze(StateObservation parentSo, StateObservation so) {
+		DefaultAnalysis analysis = new DefaultAnalysis();
+		stamp++;
+
+		// positions of the movables before the transition
+		ArrayList<Observation>[][] grid = parentSo.getObservationGrid();
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[i].length; j++) {
+				ArrayList<Observation> cell = grid[i][j];
+				for (int k = 0; k < cell.size(); k++) {
+					Observation obs = cell.get(k);
+					if (obs.category == Types.TYPE_MOVABLE) {
+						ensureCapacity(obs.obsID);
+						parentStamp[obs.obsID] = stamp;
+						parentX[obs.obsID] = obs.position.x;
+						parentY[obs.obsID] = obs.position.y;
+					}
+				}
+			}
+		}
+
+		// compare the tiles with the root and the movables with the parent
+		int currObsNumber = 0;
+		int commonObsNumber = 0;
+		int transforms = 0;
+		int movements = 0;
+		grid = so.getObservationGrid();
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[i].length; j++) {
+				ArrayList<Observation> cell = grid[i][j];
+				for (int k = 0; k < cell.size(); k++) {
+					Observation obs = cell.get(k);
+					int id = obs.obsID;
+					ensureCapacity(id);
+					if (obs.itype != 0 && seenStamp[id] != stamp) {
+						seenStamp[id] = stamp;
+						currObsNumber++;
+						if (rootIType[id] != 0) {
+							commonObsNumber++;
+							if (rootIType[id] != obs.itype + 1) {
+								transforms++;
+							}
+						}
+					}
+					if (obs.category == Types.TYPE_MOVABLE && parentStamp[id] == stamp
+							&& (parentX[id] != obs.position.x || parentY[id] != obs.position.y)) {
+						movements++;
+						parentStamp[id] = 0; // count every movable once
+					}
+				}
+			}
+		}
+
+		// handle the events
+		int nEvents = so.getEventsHistory().size();
+		int nRelEvents = countRelevantEvents(so);
+		int nParEvents = parentSo.getEventsHistory().size();
+		int nRelParEvents = countRelevantEvents(parentSo);
+
+		// check the resources, same rule as ObservationTools.analyze
+		double weightedResValue = 0;
+		Map<Integer, Integer> resources = so.getAvatarResources();
+		for (int value : resources.values()) {
+			weightedResValue += value;
+		}
+		for (int res : parentSo.getAvatarResources().keySet()) {
+			Integer value = resources.get(res);
+			weightedResValue = value == null ? 0 : -value;
+		}
+
+		analysis.load = currObsNumber;
+		analysis.tileCreations = currObsNumber - commonObsNumber;
+		analysis.tileDestructions = rootObsNumber - commonObsNumber;
+		analysis.tileTransforms = transforms;
+		analysis.tileMovements = movements;
+		analysis.relevantEvents = nRelEvents - nRelParEvents;
+		analysis.irrelevantEvents = (nEvents - nRelEvents) - (nParEvents - nRelParEvents);
+		analysis.trappedTiles = ObservationTools.getnTrapped(so);
+		analysis.ResourceValue = weightedResValue;
+
+		return analysis;
+	}
+
+	private static int countRelevantEvents(StateObservation so) {
+		int nRelEvents = 0;
+		for (Event e : so.getEventsHistory()) {
+			if (e.passiveTypeId != 0) {
+				nRelEvents += 1;
+			}
+		}
+		return nRelEvents;
+	}
+
+	private void ensureCapacity(int obsID) {
+		if (obsID >= rootIType.length) {
+			int capacity = Math.max(rootIType.length * 2, obsID + 1);
+			rootIType = Arrays.copyOf(rootIType, capacity);
+			seenStamp = Arrays.copyOf(seenStamp, capacity);
+			parentStamp = Arrays.copyOf(parentStamp, capacity);
+			parentX = Arrays.copyOf(parentX, capacity);
+			parentY = Arrays.copyOf(parentY, capacity);
+		}
+	}
+}
@@ -1,33 +1,54 @@
 package agents.misc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 
 import bladeRunner.Agent;
 import ontology.Types;
-import core.game.Event;
 import core.game.Observation;
 import core.game.StateObservation;
 
-public class ITypeAttractivity extends HashMap<Integer, Double> {
+/**
+ * The attractivity of the iTypes of a game. The iTypes are small integers
+ * handed out by the VGDLRegistry, so the values are kept in a dense array
+ * indexed by iType together with a presence bitmap. Lookups in the rollouts
+ * neither box nor throw: unknown iTypes get the prior of their sprite category.
+ */
+public class ITypeAttractivity {
 
 	/**
-	 * 
+	 * Number of sprite categories, Avatar=0, Resource=1, Portal=2, NPC=3,
+	 * Static=4, FromAvatar=5, Movable=6
 	 */
-	private static final long serialVersionUID = 1L;
+	public static final int CATEGORY_QTY = 7;
+
+	/**
+	 * Initial size of the iType table, grows if a larger iType shows up.
+	 */
+	private static final int INITIAL_ITYPE_CAPACITY = 32;
 
 	/**
 	 * The attractivity of a certain IType.
 	 */
-	private HashMap<Integer, Double> spriteCategoryAttractivityValue;
+	private double[] attractivity = new double[INITIAL_ITYPE_CAPACITY];
+
+	/**
+	 * Bitmap of the iTypes that have an attractivity value.
+	 */
+	private long[] present = new long[(INITIAL_ITYPE_CAPACITY + 63) >> 6];
+
+	/**
+	 * The prior attractivity of a sprite category.
+	 */
+	private double[] spriteCategoryAttractivityValue = new double[CATEGORY_QTY];
 
 	public ITypeAttractivity() {
 		super();
 	}
 
 	/**
-	 * creates a HashMap with all current unique iTypes in the game and its
+	 * creates a table with all current unique iTypes in the game and its
 	 * corresponding attraction values
 	 * 
 	 * @param StateObs
@@ -36,37 +57,25 @@ public class ITypeAttractivity extends HashMap<Integer, Double> {
 	public ITypeAttractivity(StateObservation StateObs, int numActions ) {
 		super();
 
-		ArrayList<Observation>[][] grid = StateObs.getObservationGrid();
-
 		// Set prior Attraction values of categories
-		spriteCategoryAttractivityValue = new HashMap<Integer, Double>();
-		spriteCategoryAttractivityValue.put(Types.TYPE_AVATAR, -1.0);
-		spriteCategoryAttractivityValue.put(Types.TYPE_RESOURCE, 0.4);
-		spriteCategoryAttractivityValue.put(Types.TYPE_PORTAL, 0.1);
+		spriteCategoryAttractivityValue[Types.TYPE_AVATAR] = -1.0;
+		spriteCategoryAttractivityValue[Types.TYPE_RESOURCE] = 0.4;
+		spriteCategoryAttractivityValue[Types.TYPE_PORTAL] = 0.1;
 		if(numActions == 4 || numActions == 2){
-			spriteCategoryAttractivityValue.put(Types.TYPE_NPC, -0.2);
+			spriteCategoryAttractivityValue[Types.TYPE_NPC] = -0.2;
 		}
 		else{
-			spriteCategoryAttractivityValue.put(Types.TYPE_NPC, 0.2);
+			spriteCategoryAttractivityValue[Types.TYPE_NPC] = 0.2;
 		}
-		spriteCategoryAttractivityValue.put(Types.TYPE_STATIC, 0.05);
-		spriteCategoryAttractivityValue.put(Types.TYPE_FROMAVATAR, 0.0);
-		spriteCategoryAttractivityValue.put(Types.TYPE_MOVABLE, 0.1);
+		spriteCategoryAttractivityValue[Types.TYPE_STATIC] = 0.05;
+		spriteCategoryAttractivityValue[Types.TYPE_FROMAVATAR] = 0.0;
+		spriteCategoryAttractivityValue[Types.TYPE_MOVABLE] = 0.1;
 
-		// go through observation grid and put all iTypes into the map
-		for (ArrayList<Observation>[] Obsarray : grid) {
-			for (ArrayList<Observation> Obslist : Obsarray) {
-				for (Observation Obs : Obslist) {
-					this.put(Obs.itype,
-							this.spriteCategoryAttractivityValue.get(Obs.category));
-				}
-			}
-		}
-		this.put(0, -1.0); // Set Wall to -1
+		putAllFromGrid(StateObs);
 	}
 
 	/**
-	 * creates a HashMap with all current unique iTypes in the game and its
+	 * creates a table with all current unique iTypes in the game and its
 	 * corresponding attraction values
 	 * 
 	 * @param StateObs
@@ -80,25 +89,19 @@ public class ITypeAttractivity extends HashMap<Integer, Double> {
 			HashMap<Integer, Double> SpriteCategoryPriors) {
 		super();
 
-		ArrayList<Observation>[][] grid = StateObs.getObservationGrid();
-
-		// Set prior Attraction values of categories
-		spriteCategoryAttractivityValue = SpriteCategoryPriors;
-
-		// go through observation grid and put all iTypes into the map
-		for (ArrayList<Observation>[] Obsarray : grid) {
-			for (ArrayList<Observation> Obslist : Obsarray) {
-				for (Observation Obs : Obslist) {
-					this.put(Obs.itype,
-							this.spriteCategoryAttractivityValue.get(Obs.category));
-				}
+		// Set prior Attraction values of categories, missing ones stay 0
+		for (int category = 0; category < CATEGORY_QTY; category++) {
+			Double prior = SpriteCategoryPriors.get(category);
+			if (prior != null) {
+				spriteCategoryAttractivityValue[category] = prior;
 			}
 		}
-		this.put(0, -1.0); // Set Wall to -1
+
+		putAllFromGrid(StateObs);
 	}
 
 	/**
-	 * creates a HashMap with all current unique iTypes in the game and its
+	 * creates a table with all current unique iTypes in the game and its
 	 * corresponding attraction values
 	 * 
 	 * @param StateObs
@@ -112,31 +115,23 @@ public class ITypeAttractivity extends HashMap<Integer, Double> {
 			Double[] SpriteCategoryPriors) {
 		super();
 
-		ArrayList<Observation>[][] grid = StateObs.getObservationGrid();
-
 		// Set prior Attraction values of categories
-		spriteCategoryAttractivityValue = new HashMap<Integer, Double>();
-		spriteCategoryAttractivityValue.put(Types.TYPE_AVATAR,
-				SpriteCategoryPriors[Types.TYPE_AVATAR]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_RESOURCE,
-				SpriteCategoryPriors[Types.TYPE_RESOURCE]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_PORTAL,
-				SpriteCategoryPriors[Types.TYPE_PORTAL]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_NPC,
-				SpriteCategoryPriors[Types.TYPE_NPC]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_STATIC,
-				SpriteCategoryPriors[Types.TYPE_STATIC]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_FROMAVATAR,
-				SpriteCategoryPriors[Types.TYPE_FROMAVATAR]);
-		spriteCategoryAttractivityValue.put(Types.TYPE_MOVABLE,
-				SpriteCategoryPriors[Types.TYPE_MOVABLE]);
-
-		// go through observation grid and put all iTypes into the map
+		for (int category = 0; category < CATEGORY_QTY; category++) {
+			spriteCategoryAttractivityValue[category] = SpriteCategoryPriors[category];
+		}
+
+		putAllFromGrid(StateObs);
+	}
+
+	/**
+	 * go through observation grid and put all iTypes into the table
+	 */
+	private void putAllFromGrid(StateObservation StateObs) {
+		ArrayList<Observation>[][] grid = StateObs.getObservationGrid();
 		for (ArrayList<Observation>[] Obsarray : grid) {
 			for (ArrayList<Observation> Obslist : Obsarray) {
 				for (Observation Obs : Obslist) {
-					this.put(Obs.itype,
-							this.spriteCategoryAttractivityValue.get(Obs.category));
+					this.put(Obs.itype, getCategoryPrior(Obs.category));
 				}
 			}
 		}
@@ -144,93 +139,95 @@ public class ITypeAttractivity extends HashMap<Integer, Double> {
 	}
 
 	// METHODS
-	public Double putIfAbsent(Observation obs){
-		if(!this.containsKey(obs.itype)){
-			this.put(obs.itype, this.spriteCategoryAttractivityValue.get(obs.category));
-			if (Agent.isVerbose) {
-				System.out.println("ITypeAttractivityMap::added iType " + obs.itype
-						+ " with value "
-						+ this.spriteCategoryAttractivityValue.get(obs.category));
-			}
-		}
-		return this.get(obs.itype);		
+	public boolean containsKey(int itype) {
+		return itype >= 0 && (itype >> 6) < present.length
+				&& (present[itype >> 6] & (1L << itype)) != 0;
 	}
 
 	/**
-	 * updates the itypesAttractionValues based on a state Observation TODO:
-	 * Maybe it would be good to make a difference between Avatar and FromAvatar
-	 * Events. TODO: Maybe there is a better learning rule TODO: The updateVals
-	 * have to be adjusted
-	 * 
-	 * @param StateObservation
-	 *            State Observation
+	 * @return the attractivity of the iType, 0 if the iType is unknown
 	 */
-	public void updateAttraction(StateObservation stateObs, Double previousScore) {
+	public double get(int itype) {
+		return containsKey(itype) ? attractivity[itype] : 0.0;
+	}
 
-		double updateVal = 0;
-		double learningrate = 1;
-		double scoreIncrease = stateObs.getGameScore() - previousScore;
-		boolean gameOver = stateObs.isGameOver();
-		Types.WINNER win = stateObs.getGameWinner();
-
-		if (scoreIncrease == 0) {
-			updateVal = 0.00;
-		} else {
-			if (scoreIncrease > 0) {
-				updateVal = 0.2;
-			}
-			if (scoreIncrease < 0) {
-				updateVal = -0.1;
-			}
+	public void put(int itype, double value) {
+		if (itype < 0) {
+			return;
+		}
+		if (itype >= attractivity.length) {
+			int capacity = Math.max(itype + 1, attractivity.length * 2);
+			attractivity = Arrays.copyOf(attractivity, capacity);
+			present = Arrays.copyOf(present, (capacity + 63) >> 6);
 		}
-		if (gameOver && win == Types.WINNER.PLAYER_LOSES) {
-			updateVal = -0.2;
+		attractivity[itype] = value;
+		present[itype >> 6] |= 1L << itype;
+	}
+
+	/**
+	 * @return all iTypes that have an attractivity value
+	 */
+	public int[] getITypes() {
+		int qty = 0;
+		for (long bits : present) {
+			qty += Long.bitCount(bits);
+		}
+		int[] itypes = new int[qty];
+		int k = 0;
+		for (int itype = 0; itype < attractivity.length; itype++) {
+			if (containsKey(itype)) {
+				itypes[k++] = itype;
+			}
 		}
+		return itypes;
+	}
 
-		if (gameOver && win == Types.WINNER.PLAYER_WINS) {
-			updateVal = 1;
+	public double getCategoryPrior(int category) {
+		if (category < 0 || category >= CATEGORY_QTY) {
+			return 0.0;
 		}
+		return spriteCategoryAttractivityValue[category];
+	}
 
-		Iterator<Event> eventIterator = stateObs.getEventsHistory()
-				.descendingIterator();
-		while (eventIterator.hasNext()) {
-			Event currEvent = eventIterator.next();
-
-			/*
-			 * System.out.print("Game Step:" + currEvent.gameStep + " ");
-			 * System.out.print(currEvent.passiveTypeId + " ");
-			 * System.out.print(currEvent.passiveSpriteId + " ");
-			 * System.out.print(currEvent.position + " ");
-			 * System.out.println(" ");
-			 */
-
-			// All Events that happened in the last game tick
-			if (currEvent.gameStep < stateObs.getGameTick() - 1) {
-				break;
+	/**
+	 * Returns the attractivity of the observation's iType. If the iType is
+	 * unknown, it is added with the prior of its category.
+	 */
+	public double putIfAbsent(Observation obs){
+		if(!this.containsKey(obs.itype)){
+			double prior = getCategoryPrior(obs.category);
+			this.put(obs.itype, prior);
+			if (Agent.isVerbose) {
+				System.out.println("ITypeAttractivityMap::added iType " + obs.itype
+						+ " with value " + prior);
 			}
+		}
+		return attractivity[obs.itype];
+	}
+
+	/**
+	 * Applies the updates collected during a rollout. Synchronized, so that
+	 * several rollouts can share one attractivity.
+	 * 
+	 * @param delta
+	 *            the collected updates
+	 */
+	public synchronized void apply(AttractivityDelta delta) {
+		double learningrate = 1;
+		for (int i = 0; i < delta.size(); i++) {
+			int itype = delta.getIType(i);
 
 			// it seems not to be possible to get the corresponding Observation
 			// (and the category), so any unknown iType is initialized with 0
-			if (!this.containsKey(currEvent.passiveTypeId)) {
-				this.put(currEvent.passiveTypeId, 0.0);
+			double newVal = get(itype) + delta.getUpdate(i) * learningrate;
+			if (newVal < -1 && newVal!=-2) {
+				newVal = -1;
 			}
-
-			if (currEvent.passiveTypeId != 0) { // exclude walls=0
-				double newVal = this.get(currEvent.passiveTypeId) + updateVal
-						* learningrate;
-				if (newVal < -1 && newVal!=-2) {
-					newVal = -1;
-				}
-				if (newVal > 1) {
-					newVal = 1;
-				}
-				// System.out.println("change attraction value of iType" +
-				// currEvent.passiveTypeId + "from" + A
-				// this.get(currEvent.passiveTypeId) + "to" + newVal );
-				this.put(currEvent.passiveTypeId, newVal);
+			if (newVal > 1) {
+				newVal = 1;
 			}
+			this.put(itype, newVal);
 		}
-
 	}
 
 }
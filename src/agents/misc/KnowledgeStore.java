@@ -0,0 +1,265 @@
+package agents.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import ontology.Types;
+import agents.misc.GameClassifier.GameType;
+import bladeRunner.Agent;
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * A small on-disk store of what we learned about a game in previous runs: the
+ * iType attractivities (enemies that killed us are labeled with -2) and the
+ * game classification. The file is memory-mapped when the first agent is
+ * constructed, so a game that we know already can skip the classifier probe
+ * and start with learned attractivities.
+ *
+ * The agent does not get to know the game file, so games are keyed by a
+ * signature of the starting state: the available actions and the set of
+ * (category, iType) pairs on the grid.
+ *
+ * The store is only used if a file is given with -Dbladerunner.knowledge=path
+ * (e.g. in the benchmarks), competition runs are not touched.
+ *
+ */
+public class KnowledgeStore {
+
+	/**
+	 * The knowledge file, null to disable the store
+	 */
+	public static String KNOWLEDGE_FILE = System.getProperty("bladerunner.knowledge");
+
+	private static final int MAGIC = 0x4b4e4f57; // "KNOW"
+	private static final int VERSION = 1;
+	private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+	/**
+	 * Everything we know about one game.
+	 */
+	public static class GameKnowledge {
+		public final int gameKey;
+		public GameType gameType;
+		public int[] itypes;
+		public double[] attractivity;
+
+		public GameKnowledge(int gameKey, GameType gameType, int[] itypes, double[] attractivity) {
+			this.gameKey = gameKey;
+			this.gameType = gameType;
+			this.itypes = itypes;
+			this.attractivity = attractivity;
+		}
+
+		/**
+		 * Writes the learned values into the attractivity.
+		 */
+		public void applyTo(ITypeAttractivity iTypeAttractivity) {
+			for (int i = 0; i < itypes.length; i++) {
+				iTypeAttractivity.put(itypes[i], attractivity[i]);
+			}
+		}
+	}
+
+	private static HashMap<Integer, GameKnowledge> knowledge = null;
+
+	/** a game that is played now, saved with its live attractivity */
+	private static class PlayedGame {
+		final int gameKey;
+		final GameType gameType;
+		final ITypeAttractivity iTypeAttractivity;
+
+		PlayedGame(int gameKey, GameType gameType, ITypeAttractivity iTypeAttractivity) {
+			this.gameKey = gameKey;
+			this.gameType = gameType;
+			this.iTypeAttractivity = iTypeAttractivity;
+		}
+	}
+
+	/** the games played now by slot of the runner (see {@link RunSettings#slot}) */
+	private static final HashMap<String, PlayedGame> playedGames = new HashMap<String, PlayedGame>();
+
+	private static boolean shutdownHookAdded = false;
+
+	public static boolean isEnabled() {
+		return KNOWLEDGE_FILE != null;
+	}
+
+	/**
+	 * Computes the key of the game from its starting state.
+	 *
+	 * @return the key, 0 if the store is disabled
+	 */
+	public static int getGameKey(StateObservation so) {
+		if (!isEnabled()) {
+			return 0;
+		}
+		// sorted, so the key doesn't depend on where the sprites are
+		TreeSet<Integer> types = new TreeSet<Integer>();
+		for (ArrayList<Observation>[] column : so.getObservationGrid()) {
+			for (ArrayList<Observation> cell : column) {
+				for (Observation obs : cell) {
+					types.add((obs.category << 16) | obs.itype);
+				}
+			}
+		}
+
+		int hash = 1;
+		for (int type : types) {
+			hash = 31 * hash + type;
+		}
+		for (Types.ACTIONS action : so.getAvailableActions()) {
+			hash = 31 * hash + action.ordinal();
+		}
+		return hash;
+	}
+
+	/**
+	 * @return what we know about the game, null if we never played it
+	 */
+	public static synchronized GameKnowledge lookup(int gameKey) {
+		if (!isEnabled()) {
+			return null;
+		}
+		if (knowledge == null) {
+			load();
+		}
+		return knowledge.get(gameKey);
+	}
+
+	/**
+	 * Remembers the game that is played now in the slot. Its knowledge is
+	 * saved when the next game of the slot starts or when the JVM exits.
+	 */
+	public static synchronized void remember(String slot, int gameKey, GameType gameType,
+			ITypeAttractivity iTypeAttractivity) {
+		if (!isEnabled()) {
+			return;
+		}
+		playedGames.put(slot, new PlayedGame(gameKey, gameType, iTypeAttractivity));
+
+		if (!shutdownHookAdded) {
+			shutdownHookAdded = true;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					saveAll();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Takes over the knowledge of the game played last in the slot and writes
+	 * the store.
+	 */
+	public static synchronized void save(String slot) {
+		if (!isEnabled() || !playedGames.containsKey(slot)) {
+			return;
+		}
+		takeOver(playedGames.get(slot));
+		write();
+	}
+
+	/**
+	 * Takes over the knowledge of the games played in all slots and writes
+	 * the store.
+	 */
+	public static synchronized void saveAll() {
+		if (!isEnabled() || playedGames.isEmpty()) {
+			return;
+		}
+		for (PlayedGame game : playedGames.values()) {
+			takeOver(game);
+		}
+		write();
+	}
+
+	private static void takeOver(PlayedGame game) {
+		if (knowledge == null) {
+			load();
+		}
+		int[] itypes = game.iTypeAttractivity.getITypes();
+		double[] values = new double[itypes.length];
+		for (int i = 0; i < itypes.length; i++) {
+			values[i] = game.iTypeAttractivity.get(itypes[i]);
+		}
+		knowledge.put(game.gameKey, new GameKnowledge(game.gameKey, game.gameType, itypes, values));
+	}
+
+	private static void load() {
+		knowledge = new HashMap<Integer, GameKnowledge>();
+		File file = new File(KNOWLEDGE_FILE);
+		if (!file.exists()) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				System.out.println("KNOWLEDGE::Ignoring incompatible file " + KNOWLEDGE_FILE);
+				return;
+			}
+			int games = buffer.getInt();
+			for (int g = 0; g < games; g++) {
+				int gameKey = buffer.getInt();
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				GameType gameType = GameType.NOT_DETERMINED;
+				try {
+					gameType = GameType.valueOf(new String(name, CHARSET));
+				} catch (IllegalArgumentException e) {
+					// a game type of an other version, classify again
+				}
+				int qty = buffer.getInt();
+				int[] itypes = new int[qty];
+				double[] values = new double[qty];
+				for (int i = 0; i < qty; i++) {
+					itypes[i] = buffer.getInt();
+					values[i] = buffer.getDouble();
+				}
+				knowledge.put(gameKey, new GameKnowledge(gameKey, gameType, itypes, values));
+			}
+			if (Agent.isVerbose) {
+				System.out.println("KNOWLEDGE::Loaded " + games + " game(s) from " + KNOWLEDGE_FILE);
+			}
+		} catch (IOException | RuntimeException e) {
+			System.out.println("KNOWLEDGE::Couldn't read " + KNOWLEDGE_FILE + ": " + e);
+			knowledge.clear();
+		}
+	}
+
+	private static void write() {
+		int size = 3 * 4;
+		for (GameKnowledge k : knowledge.values()) {
+			size += 4 + 2 + k.gameType.name().length() + 4 + k.itypes.length * (4 + 8);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(KNOWLEDGE_FILE, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(size);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(knowledge.size());
+			for (GameKnowledge k : knowledge.values()) {
+				byte[] name = k.gameType.name().getBytes(CHARSET);
+				buffer.putInt(k.gameKey);
+				buffer.putShort((short) name.length);
+				buffer.put(name);
+				buffer.putInt(k.itypes.length);
+				for (int i = 0; i < k.itypes.length; i++) {
+					buffer.putInt(k.itypes[i]);
+					buffer.putDouble(k.attractivity[i]);
+				}
+			}
+			buffer.force();
+		} catch (IOException e) {
+			System.out.println("KNOWLEDGE::Couldn't write " + KNOWLEDGE_FILE + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package agents.misc;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import agents.GameAgent;
+import bladeRunner.Agent;
+
+/**
+ * Watches the heap and lets the agent shed memory before it runs out, instead
+ * of losing the action of a tick to an OutOfMemoryError.
+ *
+ * The pressure is the share of the tenured pool (the largest heap pool,
+ * where what survives the collections ends up) that is still used after the
+ * last garbage collection. The usage right before a collection would include
+ * all the garbage. The collection usage threshold of the pool is set to the
+ * high watermark. Once it is exceeded, the agent is asked to shed a share of
+ * its memory ({@link GameAgent#shedMemory(double)}), and a twice as large
+ * share after every further collection that didn't bring the pressure below
+ * the low watermark.
+ *
+ * The watermarks are shares of the tenured pool and can be set with
+ * -Dbladerunner.memory.high and -Dbladerunner.memory.low. The threshold is
+ * set on the pool of the JVM, so there is one governor for all agents (see
+ * {@link Agent}). Its methods are synchronized for games played in parallel.
+ */
+public class MemoryGovernor {
+
+	public static final double HIGH_WATERMARK = Double.parseDouble(System.getProperty("bladerunner.memory.high",
+			"0.8"));
+	public static final double LOW_WATERMARK = Double.parseDouble(System.getProperty("bladerunner.memory.low",
+			"0.6"));
+
+	/** share that is shed first, doubled after every collection under pressure */
+	public static final double INITIAL_SHED_SHARE = 0.125;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+	/** the heap pool that keeps what survived the collections, may be null */
+	private MemoryPoolMXBean tenured = null;
+
+	private boolean isShedding = false;
+	private double shedShare = INITIAL_SHED_SHARE;
+	/** the collections when we shed the last time */
+	private long shedCollections = -1;
+
+	// statistics
+	private int sheddingTicks = 0;
+	private int outOfMemoryErrors = 0;
+	private double maxPressure = 0;
+
+	public MemoryGovernor() {
+		long tenuredMax = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			long max = pool.getUsage().getMax();
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > tenuredMax) {
+				tenured = pool;
+				tenuredMax = max;
+			}
+		}
+		if (tenured != null) {
+			tenured.setCollectionUsageThreshold((long) (HIGH_WATERMARK * tenuredMax));
+		}
+	}
+
+	/**
+	 * @return the share of the tenured pool used after the last collection,
+	 *         or of the heap right now if there is no such pool
+	 */
+	public double getPressure() {
+		MemoryUsage usage = (tenured != null) ? tenured.getCollectionUsage() : memory.getHeapMemoryUsage();
+		if (usage == null || usage.getMax() <= 0) {
+			return 0;
+		}
+		return (double) usage.getUsed() / usage.getMax();
+	}
+
+	private long getCollections() {
+		long collections = 0;
+		for (GarbageCollectorMXBean collector : collectors) {
+			collections += Math.max(0, collector.getCollectionCount());
+		}
+		return collections;
+	}
+
+	/**
+	 * Checks the pressure and lets the agent shed memory if needed. Called
+	 * once per tick, before the search.
+	 */
+	public synchronized void govern(GameAgent agent) {
+		double pressure = getPressure();
+		maxPressure = Math.max(maxPressure, pressure);
+		if (!isShedding && (pressure > HIGH_WATERMARK || isThresholdExceeded())) {
+			isShedding = true;
+			shedShare = INITIAL_SHED_SHARE;
+			shedCollections = -1;
+		} else if (isShedding && pressure < LOW_WATERMARK) {
+			isShedding = false;
+		}
+		long collections = getCollections();
+		if (!isShedding || collections == shedCollections) {
+			// the pressure shows what the last shedding freed only after the
+			// next collection
+			return;
+		}
+		shedCollections = collections;
+		if (Agent.isVerbose) {
+			System.out.format("MEMORY::Pressure %.2f, shedding %.0f%%.%n", pressure, shedShare * 100);
+		}
+		agent.shedMemory(shedShare);
+		shedShare = Math.min(1, shedShare * 2);
+		sheddingTicks++;
+	}
+
+	private boolean isThresholdExceeded() {
+		return tenured != null && tenured.isCollectionUsageThresholdExceeded();
+	}
+
+	/**
+	 * Last resort if the governor was too late: the agent sheds everything.
+	 * 
+	 * @param agent
+	 *            the agent that ran out, null if it didn't get built
+	 */
+	public synchronized void onOutOfMemory(GameAgent agent) {
+		outOfMemoryErrors++;
+		if (agent != null) {
+			agent.clearMemory();
+		}
+		isShedding = true;
+	}
+
+	public synchronized void printStatistics() {
+		System.out.format("MEMORY::pressure:%.2f|maxPressure:%.2f|sheddingTicks:%d|outOfMemory:%d%n", getPressure(),
+				maxPressure, sheddingTicks, outOfMemoryErrors);
+	}
+}
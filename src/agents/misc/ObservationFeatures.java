@@ -0,0 +1,183 @@
+package agents.misc;
+
+import java.util.ArrayList;
+
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * The sprite position lists of one state, extracted from the framework at the
+ * first request and shared by all heuristics that look at the same state
+ * afterwards. Every call to getNPCPositions() and co. allocates (and for the
+ * positions relative to a reference also sorts) fresh lists, so heuristics
+ * should share one instance per state. The agents keep the one of the
+ * current state in the context (see {@link AgentContext#getFeatures}). The
+ * states of the rollouts are looked at once, they ask the framework directly.
+ *
+ * The returned lists are shared, don't modify them.
+ */
+public class ObservationFeatures {
+
+	// the features
+	public static final int NPC = 0;
+	public static final int RESOURCES = 1;
+	public static final int MOVABLES = 2;
+	public static final int IMMOVABLES = 3;
+	public static final int PORTALS = 4;
+	public static final int FROM_AVATAR = 5;
+	public static final int NPC_BY_DISTANCE = 6;
+	public static final int RESOURCES_BY_DISTANCE = 7;
+	public static final int MOVABLES_BY_DISTANCE = 8;
+	public static final int FEATURE_QTY = 9;
+
+	private static final String[] FEATURE_NAMES = { "npc", "resources", "movables", "immovables", "portals",
+			"fromAvatar", "npcByDistance", "resourcesByDistance", "movablesByDistance" };
+
+	/**
+	 * How often the features were extracted from the framework and how often
+	 * that was avoided, one per game (see {@link AgentContext}).
+	 */
+	public static class Statistics {
+		private final long[] extractions = new long[FEATURE_QTY];
+		private final long[] avoided = new long[FEATURE_QTY];
+
+		/**
+		 * @return the number of extractions from the framework of a feature
+		 */
+		public long getExtractions(int feature) {
+			return extractions[feature];
+		}
+
+		/**
+		 * @return the number of extractions of a feature that were avoided
+		 */
+		public long getAvoided(int feature) {
+			return avoided[feature];
+		}
+
+		public void printStatistics() {
+			StringBuilder sb = new StringBuilder("FEATURES::extracted/avoided");
+			for (int i = 0; i < FEATURE_QTY; i++) {
+				sb.append("|").append(FEATURE_NAMES[i]).append(":").append(extractions[i]).append("/")
+						.append(avoided[i]);
+			}
+			System.out.println(sb);
+		}
+	}
+
+	private final StateObservation state;
+	private final int gameTick;
+	private final Statistics statistics;
+	private final ArrayList<Observation>[][] positions;
+	private final boolean[] extracted = new boolean[FEATURE_QTY];
+
+	/**
+	 * @param statistics
+	 *            counts the extractions, may be null
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ObservationFeatures(StateObservation state, Statistics statistics) {
+		this.state = state;
+		this.gameTick = state.getGameTick();
+		this.statistics = statistics;
+		this.positions = new ArrayList[FEATURE_QTY][];
+	}
+
+	/**
+	 * @return if these are the features of the state. States that are
+	 *         advanced in place are extracted again.
+	 */
+	public boolean isOf(StateObservation so) {
+		return state == so && gameTick == so.getGameTick();
+	}
+
+	private ArrayList<Observation>[] get(int feature) {
+		if (extracted[feature]) {
+			if (statistics != null) {
+				statistics.avoided[feature]++;
+			}
+			return positions[feature];
+		}
+		if (statistics != null) {
+			statistics.extractions[feature]++;
+		}
+		switch (feature) {
+		case NPC:
+			positions[feature] = state.getNPCPositions();
+			break;
+		case RESOURCES:
+			positions[feature] = state.getResourcesPositions();
+			break;
+		case MOVABLES:
+			positions[feature] = state.getMovablePositions();
+			break;
+		case IMMOVABLES:
+			positions[feature] = state.getImmovablePositions();
+			break;
+		case PORTALS:
+			positions[feature] = state.getPortalsPositions();
+			break;
+		case FROM_AVATAR:
+			positions[feature] = state.getFromAvatarSpritesPositions();
+			break;
+		case NPC_BY_DISTANCE:
+			positions[feature] = state.getNPCPositions(state.getAvatarPosition());
+			break;
+		case RESOURCES_BY_DISTANCE:
+			positions[feature] = state.getResourcesPositions(state.getAvatarPosition());
+			break;
+		case MOVABLES_BY_DISTANCE:
+			positions[feature] = state.getMovablePositions(state.getAvatarPosition());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown feature " + feature);
+		}
+		extracted[feature] = true;
+		return positions[feature];
+	}
+
+	public ArrayList<Observation>[] getNPCPositions() {
+		return get(NPC);
+	}
+
+	public ArrayList<Observation>[] getResourcesPositions() {
+		return get(RESOURCES);
+	}
+
+	public ArrayList<Observation>[] getMovablePositions() {
+		return get(MOVABLES);
+	}
+
+	public ArrayList<Observation>[] getImmovablePositions() {
+		return get(IMMOVABLES);
+	}
+
+	public ArrayList<Observation>[] getPortalsPositions() {
+		return get(PORTALS);
+	}
+
+	public ArrayList<Observation>[] getFromAvatarSpritesPositions() {
+		return get(FROM_AVATAR);
+	}
+
+	/**
+	 * @return the NPCs sorted by their distance to the avatar
+	 */
+	public ArrayList<Observation>[] getNPCPositionsByDistance() {
+		return get(NPC_BY_DISTANCE);
+	}
+
+	/**
+	 * @return the resources sorted by their distance to the avatar
+	 */
+	public ArrayList<Observation>[] getResourcesPositionsByDistance() {
+		return get(RESOURCES_BY_DISTANCE);
+	}
+
+	/**
+	 * @return the movables sorted by their distance to the avatar
+	 */
+	public ArrayList<Observation>[] getMovablePositionsByDistance() {
+		return get(MOVABLES_BY_DISTANCE);
+	}
+}
@@ -3,10 +3,11 @@ package agents.misc;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
+import ontology.Types;
 import tools.Vector2d;
 import agents.hbfs.HBFSAgent;
-import agents.misc.pathplanning.PathPlanner;
 import core.game.Event;
 import core.game.Observation;
 import core.game.StateObservation;
@@ -172,10 +173,108 @@ public class ObservationTools {
 		return ObsList;
 	}
 
+	private static final ThreadLocal<SpatialIndex> spatialIndex = new ThreadLocal<SpatialIndex>() {
+		@Override
+		protected SpatialIndex initialValue() {
+			return new SpatialIndex();
+		}
+	};
+
+	/**
+	 * @return the spatial index of this thread, built for the state
+	 */
+	public static SpatialIndex getSpatialIndex(StateObservation so) {
+		SpatialIndex index = spatialIndex.get();
+		index.build(so);
+		return index;
+	}
+
 	/*
 	 * This is Jakob's Trap Heuristic from the MCTS Node
 	 */
 	public static int getnTrapped(StateObservation a_gameState) {
+		if (!hasMovables(new ObservationFeatures(a_gameState, null))) {
+			return 0;
+		}
+		return countTraps(getSpatialIndex(a_gameState), false);
+	}
+
+	/**
+	 * @return if there are movables in the state, no need to build the
+	 *         spatial index for the trap heuristic otherwise
+	 */
+	public static boolean hasMovables(ObservationFeatures features) {
+		ArrayList<Observation>[] movPos = features.getMovablePositions();
+		if (movPos != null) {
+			for (ArrayList<Observation> obsList : movPos) {
+				if (!obsList.isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Jakob's Trap Heuristic on the spatial index: Like the framework's
+	 * position lists, only the first immovable and movable type is looked at
+	 * and neighbors are the observations at most one block away.
+	 * 
+	 * @param index
+	 *            the index of the state
+	 * @param countFree
+	 *            count the movables that are not surrounded by anything instead
+	 *            of the trapped ones
+	 * @return the number of movable objects that are apparently blocked, at
+	 *         least for 1 move (or completely free)
+	 */
+	public static int countTraps(SpatialIndex index, boolean countFree) {
+		if (index.getFirstIType(Types.TYPE_STATIC) < 0) {
+			return 0;
+		}
+		int immovables = index.getFirstTypeTotal(Types.TYPE_STATIC);
+		int movables = index.getFirstTypeTotal(Types.TYPE_MOVABLE);
+
+		int isTrapped = 0;
+		int isCompletelyFree = 0;
+		for (int x = 0; x < index.getWidth(); x++) {
+			for (int y = 0; y < index.getHeight(); y++) {
+				int n = index.count(x, y, Types.TYPE_MOVABLE);
+				if (n == 0) {
+					continue;
+				}
+				int nearImmovables = index.countFirstTypeAdjacent(x, y, Types.TYPE_STATIC);
+				int nearMovables = index.countFirstTypeAdjacent(x, y, Types.TYPE_MOVABLE);
+
+				// if surrounded by 3 objects, its trapped
+				if (immovables >= 3 && nearImmovables >= 3) {
+					isTrapped += n;
+				}
+				if (immovables >= 2 && nearImmovables >= 2) {
+					if (index.isCornerOfFirstType(x, y, Types.TYPE_STATIC)) {
+						// if surrounded by a corner its trapped
+						isTrapped += n;
+					} else if (movables > 1 && nearMovables >= 2) {
+						// if surrounded by two immovable objects and a
+						// movable object its trapped
+						isTrapped += n;
+					}
+				}
+
+				// movable objects that are not surrounded by anything
+				if (nearImmovables == 0 && (movables <= 1 || nearMovables < 2)) {
+					isCompletelyFree += n;
+				}
+			}
+		}
+		return countFree ? isCompletelyFree : isTrapped;
+	}
+
+	/*
+	 * The trap heuristic on the sorted position lists of the framework, kept
+	 * as reference for the benchmark
+	 */
+	public static int getnTrappedByDistance(StateObservation a_gameState, boolean countFree) {
 
 		// return the number of movable objects that are apparently blocked, at
 		// least for 1 move
@@ -247,7 +346,7 @@ public class ObservationTools {
 			}
 		}
 		//
-		return isTrapped;
+		return countFree ? isCompletelyFree : isTrapped;
 	}
 
 	/*
@@ -392,44 +491,30 @@ public class ObservationTools {
 		return analysis;
 	}
 
-	HashMap<Integer, Integer> getRessourceDifference(StateObservation so) {
+	HashMap<Integer, Integer> getRessourceDifference(StateObservation so, Map<Integer, Integer> previousAvatarRessources) {
 		HashMap<Integer, Integer> ressourceDifference = new HashMap<>();
 
 		for (int k : so.getAvatarResources().keySet()) {
-			if (PersistentStorage.previousAvatarRessources.containsKey(k)) {
-				ressourceDifference.put(k, so.getAvatarResources().get(k) - PersistentStorage.previousAvatarRessources.get(k));
+			if (previousAvatarRessources.containsKey(k)) {
+				ressourceDifference.put(k, so.getAvatarResources().get(k) - previousAvatarRessources.get(k));
 			} else {
 				ressourceDifference.put(k, so.getAvatarResources().get(k));
 			}
 		}
 
-		//PersistentStorage.previousAvatarRessources = so.getAvatarResources();
-
 		return ressourceDifference;
 	}
 
-	public static int getRessourceDifferenceIndicator(StateObservation so) {
+	public static int getRessourceDifferenceIndicator(StateObservation so, Map<Integer, Integer> previousAvatarRessources) {
 		int indicator = 0;
 		for (int k : so.getAvatarResources().keySet()) {
-			if (PersistentStorage.previousAvatarRessources.containsKey(k)) {
-				indicator += so.getAvatarResources().get(k) - PersistentStorage.previousAvatarRessources.get(k);
+			if (previousAvatarRessources.containsKey(k)) {
+				indicator += so.getAvatarResources().get(k) - previousAvatarRessources.get(k);
 			} else {
 				indicator += so.getAvatarResources().get(k);
 			}
 		}
 
-		//PersistentStorage.previousAvatarRessources = so.getAvatarResources();
-
 		return indicator;
 	}
-
-	private static PathPlanner pathPlanner = null;
-
-	public static PathPlanner getPathPlanner() {
-		if (pathPlanner == null) {
-			pathPlanner = new PathPlanner();
-		}
-		return pathPlanner;
-
-	}
 }
@@ -2,54 +2,47 @@ package agents.misc;
 
 import java.util.HashMap;
 
-import ontology.Types.ACTIONS;
-import core.game.StateObservation;
-
+/**
+ * Knowledge that is carried over from one game to the next. The framework
+ * creates a new agent for every game, so the context of the game played last
+ * is all that links them. Everything else belongs to the {@link AgentContext}
+ * of its game. The games are linked per slot of the runner (see
+ * {@link RunSettings#slot}), so games played in parallel don't take over
+ * each other's knowledge.
+ */
 public class PersistentStorage {
 
 	/*
-	 * HashMap of iTypeAttractivity for start situation
-	 * 
+	 * The context of the game played last by slot. The next game takes the
+	 * iTypeAttractivity and the last state from it.
+	 *
 	 * @note TODO: Maybe create List of AttractivityMaps for different game
 	 * situations (e.g. avatar has found sword/has eaten mushroom/has a lot of
 	 * honey)
 	 */
-	public static ITypeAttractivity iTypeAttractivity = null;
+	private static final HashMap<String, AgentContext> lastGames = new HashMap<String, AgentContext>();
 
 	/**
-	 * an exploration reward map that is laid over the game-world to reward
-	 * places that haven't been visited lately
+	 * @return the context of the game played last in the slot, null if there
+	 *         was none
 	 */
-	public static RewardMap rewMap = null;
-
-	// keeps track of the reward at the start of the MCTS search
-	public static double startingReward = 0;
-	public static double numberOfBlockedMovables = 0;
-	public static ACTIONS[] actions;
-	public static double K = Math.sqrt(2);
-	public static int MCTS_AVOID_DEATH_DEPTH = 2;
-	
-	public static int GameCounter = 0;
-	
-	public static StateObservation lastGameState= null;
-	public static double lastWinLoseExpectation=0;
-
-	// fix the MCTS_DEPTH to the starting DEPTH
-	public static int MCTS_DEPTH_RUN = PersistentStorage.MCTS_DEPTH_FIX;
+	public static synchronized AgentContext getLastGame(String slot) {
+		return lastGames.get(slot);
+	}
 
-	/*
-	 * running and fixed MCTS_DEPTH, first increments to counter the increment
-	 * of the depth of the cut trees. The later stays fixed
+	/**
+	 * Remembers the context of the game that starts now for the next one in
+	 * the slot.
 	 */
-	public static int MCTS_DEPTH_FIX = 3;
-	
-	// ## Parameters
-	public static int ROLLOUT_DEPTH = 0;
-	
+	public static synchronized void setLastGame(String slot, AgentContext context) {
+		lastGames.put(slot, context);
+	}
+
 	/**
-	 * The adjacency map is a map containing positions you can move to at the current moment.
+	 * Forgets the previous games of the slot, its next game is played like
+	 * the first one.
 	 */
-	public static AdjacencyMap adjacencyMap = null;
-	
-	public static HashMap<Integer, Integer> previousAvatarRessources = null;
+	public static synchronized void reset(String slot) {
+		lastGames.remove(slot);
+	}
 }
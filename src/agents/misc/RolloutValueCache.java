@@ -0,0 +1,161 @@
+package agents.misc;
+
+import java.util.ArrayList;
+
+import core.game.Observation;
+import core.game.StateObservation;
+import tools.Vector2d;
+
+/**
+ * The values the rollouts of one tick returned, by a hash of the state they
+ * started from. Once a state was rolled out often enough its mean value is
+ * used instead of another rollout, which saves the rollout steps and the
+ * heuristics at its end. Only used in deterministic games, where the key
+ * tells the states apart. A state a rollout died from is always rolled out
+ * again, the mean of the survivors would make it look safe.
+ *
+ * The values are relative to the start of the search, so the cache is
+ * cleared with every new tick (see {@link AgentContext#publishTick}). It is a
+ * fixed size open addressing table on primitive arrays, entries that don't
+ * find a slot are dropped.
+ */
+public class RolloutValueCache {
+
+	/** number of slots, a power of two */
+	public static final int CAPACITY = 1 << 12;
+
+	/** slots probed per key */
+	public static final int PROBES = 8;
+
+	/** rollouts of a state before its mean is used */
+	public int minSamples = 3;
+
+	private final long[] keys = new long[CAPACITY];
+	private final double[] sums = new double[CAPACITY];
+	private final int[] counts = new int[CAPACITY];
+	private final int[] losses = new int[CAPACITY];
+	/** the slots of older generations are free */
+	private final int[] generations = new int[CAPACITY];
+	private int generation = 1;
+
+	// statistics
+	private long lookups = 0;
+	private long hits = 0;
+	private long dropped = 0;
+
+	/**
+	 * @return a hash of the tick, the score, the avatar position, orientation
+	 *         and resources, and of the itype and position of every sprite
+	 */
+	public static long key(StateObservation so) {
+		return key(so, true);
+	}
+
+	/**
+	 * @param exact
+	 *            if the tick and where the sprites are is part of the key.
+	 *            Without them only the number of sprites of each itype is, so
+	 *            a state that stood still for a tick keeps its key, and so do
+	 *            the NPCs of a stochastic game that walked elsewhere.
+	 * @return the key of the state
+	 */
+	public static long key(StateObservation so, boolean exact) {
+		long sprites = 0;
+		ArrayList<Observation>[][] grid = so.getObservationGrid();
+		for (int i = 0; i < grid.length; i++) {
+			for (int j = 0; j < grid[i].length; j++) {
+				for (Observation o : grid[i][j]) {
+					// order independent
+					long sprite = 0x9e3779b97f4a7c15L * (o.itype + 1);
+					if (exact) {
+						sprite = mix(sprite + ((long) o.position.x << 32) + (long) o.position.y);
+					}
+					sprites += sprite;
+				}
+			}
+		}
+		long h = exact ? so.getGameTick() : 0;
+		h = h * 31 + Double.doubleToLongBits(so.getGameScore());
+		Vector2d pos = so.getAvatarPosition();
+		h = h * 31 + (long) pos.x;
+		h = h * 31 + (long) pos.y;
+		Vector2d orientation = so.getAvatarOrientation();
+		h = h * 31 + (long) (orientation.x * 2);
+		h = h * 31 + (long) (orientation.y * 2);
+		h = h * 31 + so.getAvatarResources().hashCode();
+		h = h * 31 + sprites;
+		// spread the bits over the table
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private int slot(long key) {
+		int start = (int) key & (CAPACITY - 1);
+		for (int i = 0; i < PROBES; i++) {
+			int s = (start + i) & (CAPACITY - 1);
+			if (generations[s] != generation || keys[s] == key) {
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the mean value of the rollouts from the state, NaN if it wasn't
+	 *         rolled out minSamples times yet or a rollout died
+	 */
+	public double estimate(long key) {
+		lookups++;
+		int s = slot(key);
+		if (s < 0 || generations[s] != generation || counts[s] < minSamples || losses[s] > 0) {
+			return Double.NaN;
+		}
+		hits++;
+		return sums[s] / counts[s];
+	}
+
+	/**
+	 * Adds the value of a rollout from the state.
+	 * 
+	 * @param lost
+	 *            if the rollout died, the state is rolled out from then on
+	 */
+	public void add(long key, double value, boolean lost) {
+		int s = slot(key);
+		if (s < 0) {
+			dropped++;
+			return;
+		}
+		if (generations[s] != generation) {
+			generations[s] = generation;
+			keys[s] = key;
+			sums[s] = 0;
+			counts[s] = 0;
+			losses[s] = 0;
+		}
+		if (lost) {
+			losses[s]++;
+		} else {
+			sums[s] += value;
+			counts[s]++;
+		}
+	}
+
+	/**
+	 * Forgets all values.
+	 */
+	public void clear() {
+		generation++;
+	}
+
+	public void printStatistics() {
+		System.out.format("VALUES::lookups:%d|hits:%d|hitRate:%.2f|dropped:%d|minSamples:%d%n", lookups, hits,
+				(lookups > 0) ? (double) hits / lookups : 0, dropped, minSamples);
+	}
+}
@@ -0,0 +1,65 @@
+package agents.misc;
+
+/**
+ * How the runner wants the games of a thread to be played: the seed of the
+ * searches, the number of search iterations per tick and the slot of the
+ * carry-over between games (see {@link PersistentStorage}). The framework
+ * creates the agent on the thread that runs the game, so the settings are
+ * kept per thread. A runner that plays games in parallel gives every thread
+ * its own slot.
+ *
+ * Without a runner the settings come from -Dbladerunner.seed and
+ * -Dbladerunner.iterations, all threads share one slot.
+ */
+public final class RunSettings {
+
+	/** the slot of the threads the runner didn't set one for */
+	public static final String DEFAULT_SLOT = "default";
+
+	public static final RunSettings DEFAULT = new RunSettings(Long.getLong("bladerunner.seed"),
+			Integer.getInteger("bladerunner.iterations", 0), DEFAULT_SLOT);
+
+	private static final ThreadLocal<RunSettings> current = new ThreadLocal<RunSettings>() {
+		@Override
+		protected RunSettings initialValue() {
+			return DEFAULT;
+		}
+	};
+
+	/** the seed of the random generator of the searches, null for none */
+	public final Long seed;
+
+	/** iterations of each kind per tick, 0 to stop the searches by the clock */
+	public final int fixedIterations;
+
+	/** the slot the games carry over their knowledge in */
+	public final String slot;
+
+	public RunSettings(Long seed, int fixedIterations, String slot) {
+		this.seed = seed;
+		this.fixedIterations = fixedIterations;
+		this.slot = slot;
+	}
+
+	public RunSettings withSeed(Long seed) {
+		return new RunSettings(seed, fixedIterations, slot);
+	}
+
+	public RunSettings withFixedIterations(int fixedIterations) {
+		return new RunSettings(seed, fixedIterations, slot);
+	}
+
+	/**
+	 * @return the settings of the games of this thread
+	 */
+	public static RunSettings current() {
+		return current.get();
+	}
+
+	/**
+	 * Plays the next games of this thread with the settings.
+	 */
+	public static void use(RunSettings settings) {
+		current.set(settings);
+	}
+}
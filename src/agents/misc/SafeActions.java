@@ -0,0 +1,113 @@
+package agents.misc;
+
+import ontology.Types.ACTIONS;
+import core.game.StateObservation;
+
+/**
+ * How likely each action kills the avatar within one step of a tick, as
+ * sampled by {@link agents.mcts.SafeActionFilter} before the search. Published
+ * in the {@link AgentContext}, so all searches of a tick can skip the lethal
+ * actions. ACTION_NIL is sampled as well, it isn't one of the actions of the
+ * context but the agents wait with it.
+ */
+public final class SafeActions {
+
+	/**
+	 * Actions that died in at least this share of the samples are lethal.
+	 */
+	public static final double LETHAL_PROBABILITY = 0.5;
+
+	/** the tick the actions were sampled in */
+	public final int gameTick;
+
+	private final ACTIONS[] actions;
+	private final double[] deathProbability;
+	private final int[] samples;
+	private final StateObservation[] deathStates;
+
+	/**
+	 * @param deaths
+	 *            the deaths per action, ACTION_NIL last (see
+	 *            {@link #nilIndex()})
+	 * @param deathStates
+	 *            a state the avatar died in per action, null if it never died
+	 */
+	public SafeActions(int gameTick, ACTIONS[] actions, int[] deaths, int[] samples, StateObservation[] deathStates) {
+		this.gameTick = gameTick;
+		this.actions = actions;
+		this.samples = samples.clone();
+		this.deathStates = deathStates.clone();
+		deathProbability = new double[actions.length + 1];
+		for (int i = 0; i < deathProbability.length; i++) {
+			deathProbability[i] = (samples[i] > 0) ? (double) deaths[i] / samples[i] : 0;
+		}
+	}
+
+	private int indexOf(ACTIONS action) {
+		if (action == ACTIONS.ACTION_NIL) {
+			return nilIndex();
+		}
+		for (int i = 0; i < actions.length; i++) {
+			if (actions[i] == action) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index of ACTION_NIL, which is sampled after the actions of
+	 *         the context
+	 */
+	public int nilIndex() {
+		return actions.length;
+	}
+
+	/**
+	 * @return the share of the samples of the action (index into the actions
+	 *         of the context) that died, 0 if it wasn't sampled
+	 */
+	public double getDeathProbability(int actionIdx) {
+		return deathProbability[actionIdx];
+	}
+
+	/**
+	 * @return the number of times the action was sampled
+	 */
+	public int getSamples(int actionIdx) {
+		return samples[actionIdx];
+	}
+
+	public boolean isLethal(int actionIdx) {
+		return deathProbability[actionIdx] >= LETHAL_PROBABILITY;
+	}
+
+	/**
+	 * @return if the action is not known to be lethal, actions that are not
+	 *         available in the game count as safe
+	 */
+	public boolean isSafe(ACTIONS action) {
+		int i = indexOf(action);
+		return i < 0 || !isLethal(i);
+	}
+
+	/**
+	 * @return if any of the actions of the context is not lethal, waiting
+	 *         doesn't count
+	 */
+	public boolean hasSafeAction() {
+		for (int i = 0; i < actions.length; i++) {
+			if (!isLethal(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return a state the action killed the avatar in, null if it never did
+	 */
+	public StateObservation getDeathState(int actionIdx) {
+		return deathStates[actionIdx];
+	}
+}
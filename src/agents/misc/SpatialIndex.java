@@ -0,0 +1,233 @@
+package agents.misc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import tools.Vector2d;
+import core.game.Observation;
+import core.game.StateObservation;
+
+/**
+ * Counts of the observations of one state per grid cell and category, built
+ * once from the observation grid. Neighborhood queries are O(1) instead of
+ * sorting all sprites by distance like getImmovablePositions(pos) does.
+ *
+ * Like the position lists of the framework, some queries only look at the
+ * first type of a category (the one with the smallest itype).
+ *
+ * An index is rebuilt for every state, the buffers are kept. It is not thread
+ * safe.
+ */
+public class SpatialIndex {
+
+	/** number of sprite categories, see ontology.Types.TYPE_* */
+	public static final int CATEGORY_QTY = 7;
+
+	// orthogonal neighbors: up, left, right, down
+	private static final int[] DX = { 0, -1, 1, 0 };
+	private static final int[] DY = { -1, 0, 0, 1 };
+
+	private int width = 0;
+	private int height = 0;
+	private int blockSize = 1;
+
+	/** observations per (cell, category) */
+	private int[] categoryCount = new int[0];
+	/** observations of the first type per (cell, category) */
+	private int[] firstTypeCount = new int[0];
+	/**
+	 * smallest and second smallest obsID of the first type per (cell,
+	 * category), the framework lists sprites with the same distance in the
+	 * order of their creation
+	 */
+	private int[] firstTypeMinID = new int[0];
+	private int[] firstTypeSecondID = new int[0];
+
+	private final int[] firstIType = new int[CATEGORY_QTY];
+	private final int[] firstTypeTotal = new int[CATEGORY_QTY];
+
+	/**
+	 * Rebuilds the index for a state.
+	 */
+	public void build(StateObservation so) {
+		ArrayList<Observation>[][] grid = so.getObservationGrid();
+		width = grid.length;
+		height = width > 0 ? grid[0].length : 0;
+		blockSize = so.getBlockSize();
+
+		int size = width * height * CATEGORY_QTY;
+		if (categoryCount.length < size) {
+			categoryCount = new int[size];
+			firstTypeCount = new int[size];
+			firstTypeMinID = new int[size];
+			firstTypeSecondID = new int[size];
+		} else {
+			Arrays.fill(categoryCount, 0, size, 0);
+			Arrays.fill(firstTypeCount, 0, size, 0);
+		}
+		Arrays.fill(firstTypeMinID, 0, size, Integer.MAX_VALUE);
+		Arrays.fill(firstTypeSecondID, 0, size, Integer.MAX_VALUE);
+		Arrays.fill(firstIType, Integer.MAX_VALUE);
+		Arrays.fill(firstTypeTotal, 0);
+
+		// count the categories and find the first type of each
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				ArrayList<Observation> cell = grid[x][y];
+				for (int k = 0; k < cell.size(); k++) {
+					Observation obs = cell.get(k);
+					categoryCount[index(x, y, obs.category)]++;
+					if (obs.itype < firstIType[obs.category]) {
+						firstIType[obs.category] = obs.itype;
+					}
+				}
+			}
+		}
+
+		// count the first types
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				ArrayList<Observation> cell = grid[x][y];
+				for (int k = 0; k < cell.size(); k++) {
+					Observation obs = cell.get(k);
+					if (obs.itype == firstIType[obs.category]) {
+						int i = index(x, y, obs.category);
+						firstTypeCount[i]++;
+						firstTypeTotal[obs.category]++;
+						if (obs.obsID < firstTypeMinID[i]) {
+							firstTypeSecondID[i] = firstTypeMinID[i];
+							firstTypeMinID[i] = obs.obsID;
+						} else if (obs.obsID < firstTypeSecondID[i]) {
+							firstTypeSecondID[i] = obs.obsID;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int index(int x, int y, int category) {
+		return (x * height + y) * CATEGORY_QTY + category;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCellX(Vector2d position) {
+		return (int) (position.x / blockSize);
+	}
+
+	public int getCellY(Vector2d position) {
+		return (int) (position.y / blockSize);
+	}
+
+	/**
+	 * @return the number of observations of a category in the cell, 0
+	 *         outside of the grid
+	 */
+	public int count(int x, int y, int category) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return 0;
+		}
+		return categoryCount[index(x, y, category)];
+	}
+
+	/**
+	 * @return the number of observations of the first type of a category in
+	 *         the cell, 0 outside of the grid
+	 */
+	public int countFirstType(int x, int y, int category) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return 0;
+		}
+		return firstTypeCount[index(x, y, category)];
+	}
+
+	/**
+	 * @return the number of observations of a category in the four
+	 *         orthogonal neighbors of the cell
+	 */
+	public int countNeighbors(int x, int y, int category) {
+		int n = 0;
+		for (int d = 0; d < DX.length; d++) {
+			n += count(x + DX[d], y + DY[d], category);
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of observations of the first type of a category in
+	 *         the cell and its four orthogonal neighbors, i.e. those at most
+	 *         one block away
+	 */
+	public int countFirstTypeAdjacent(int x, int y, int category) {
+		int n = countFirstType(x, y, category);
+		for (int d = 0; d < DX.length; d++) {
+			n += countFirstType(x + DX[d], y + DY[d], category);
+		}
+		return n;
+	}
+
+	/**
+	 * @return if the two observations of the first type of a category that
+	 *         are closest to the cell (the older one first if they are equally
+	 *         close) sit on two sides forming a corner
+	 */
+	public boolean isCornerOfFirstType(int x, int y, int category) {
+		if (countFirstType(x, y, category) > 0) {
+			return false;
+		}
+		// the two oldest observations in the neighbors
+		int firstID = Integer.MAX_VALUE;
+		int firstDir = -1;
+		int secondID = Integer.MAX_VALUE;
+		int secondDir = -1;
+		for (int d = 0; d < DX.length; d++) {
+			int nx = x + DX[d];
+			int ny = y + DY[d];
+			if (countFirstType(nx, ny, category) == 0) {
+				continue;
+			}
+			int i = index(nx, ny, category);
+			if (firstTypeMinID[i] < firstID) {
+				secondID = firstID;
+				secondDir = firstDir;
+				firstID = firstTypeMinID[i];
+				firstDir = d;
+				if (firstTypeSecondID[i] < secondID) {
+					secondID = firstTypeSecondID[i];
+					secondDir = d;
+				}
+			} else if (firstTypeMinID[i] < secondID) {
+				secondID = firstTypeMinID[i];
+				secondDir = d;
+			}
+		}
+		if (secondDir < 0) {
+			return false;
+		}
+		// one horizontal and one vertical neighbor
+		return DX[firstDir] * DY[secondDir] != 0 || DY[firstDir] * DX[secondDir] != 0;
+	}
+
+	/**
+	 * @return the smallest itype of a category in the state, -1 if there is
+	 *         none
+	 */
+	public int getFirstIType(int category) {
+		return firstIType[category] == Integer.MAX_VALUE ? -1 : firstIType[category];
+	}
+
+	/**
+	 * @return the number of observations of the first type of a category in
+	 *         the state
+	 */
+	public int getFirstTypeTotal(int category) {
+		return firstTypeTotal[category];
+	}
+}
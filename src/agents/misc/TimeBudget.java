@@ -0,0 +1,223 @@
+package agents.misc;
+
+import java.util.Arrays;
+
+import tools.ElapsedCpuTimer;
+
+/**
+ * Decides whether there is enough time left for another iteration of a
+ * search. Instead of fixed cutoffs like remainingTimeMillis() > 10 it keeps an
+ * online estimate of what one iteration of each kind costs in the current
+ * game, an exponentially weighted moving average of the cost and of its
+ * deviation, and only starts an iteration if the predicted cost still fits
+ * before the deadline minus a safety margin.
+ *
+ * One budget is kept per game (see {@link AgentContext}), since the cost of
+ * advancing and copying states differs a lot from game to game. Missed
+ * deadlines are counted as overruns.
+ *
+ * With fixed iterations (see {@link RunSettings#fixedIterations}) the
+ * searches run a fixed number of iterations of each kind per tick instead,
+ * whatever the clock says. Together with a seed this makes a game
+ * reproducible, as long as the iterations fit into the time of a tick.
+ *
+ * The framework gives every tick the same time, it can't be carried over.
+ * If a search is sure about its action early, it spends the rest of the tick
+ * on the subtree of that action, which the next search starts from. That
+ * time is counted as subtree search time (see
+ * {@link #countEarlyDecision(ElapsedCpuTimer)}).
+ *
+ * The estimates are synchronized, a search on another thread may share them.
+ */
+public class TimeBudget {
+
+	// the kinds of iterations
+	public static final int MCTS_ITERATION = 0;
+	public static final int HBFS_EXPANSION = 1;
+	public static final int PATH_PLANNING = 2;
+	public static final int KIND_QTY = 3;
+
+	private static final String[] KIND_NAMES = { "mcts", "hbfs", "pathPlanning" };
+
+	/** weight of a new sample in the moving averages */
+	public static final double ALPHA = 0.125;
+
+	/** weight of the deviation in the predicted cost of an iteration */
+	public static final double DEVIATION_WEIGHT = 2;
+
+	/**
+	 * Time in milliseconds that is kept free for returning the action to the
+	 * framework.
+	 */
+	public static final double SAFETY_MARGIN_MILLIS = 3;
+
+	/**
+	 * Additional time kept free while the controller is created. Missing that
+	 * deadline disqualifies the controller for the whole game, and the first
+	 * iterations suffer from class loading and compilation.
+	 */
+	public static final double INITIALIZATION_RESERVE_MILLIS = 25;
+
+	/**
+	 * Samples above mean + OUTLIER_DEVIATIONS * deviation are clipped, so a
+	 * single garbage collection doesn't stop the search for several ticks.
+	 */
+	public static final double OUTLIER_DEVIATIONS = 4;
+
+	/**
+	 * Iterations of each kind per tick, 0 to stop the searches by the clock.
+	 */
+	private final int fixedIterations;
+
+	private final double[] meanNanos = new double[KIND_QTY];
+	private final double[] deviationNanos = new double[KIND_QTY];
+	private final long[] samples = new long[KIND_QTY];
+	private final int[] tickIterations = new int[KIND_QTY];
+
+	private long ticks = 0;
+	private long earlyDecisions = 0;
+	private double subtreeSearchMillis = 0;
+	private long overruns = 0;
+	private long worstOverrunMillis = 0;
+
+	/**
+	 * @param fixedIterations
+	 *            iterations of each kind per tick, 0 to stop the searches by
+	 *            the clock
+	 */
+	public TimeBudget(int fixedIterations) {
+		this.fixedIterations = fixedIterations;
+	}
+
+	/**
+	 * @return if the searches run a fixed number of iterations per tick
+	 */
+	public boolean isFixed() {
+		return fixedIterations > 0;
+	}
+
+	/**
+	 * @return the predicted cost of the next iteration of a kind in
+	 *         milliseconds, 0 as long as we haven't seen one
+	 */
+	public synchronized double predictMillis(int kind) {
+		return (meanNanos[kind] + DEVIATION_WEIGHT * deviationNanos[kind]) / 1e6;
+	}
+
+	/**
+	 * @return if the next iteration of a kind is expected to finish before
+	 *         the deadline of the timer minus the safety margin
+	 */
+	public boolean hasTimeFor(ElapsedCpuTimer timer, int kind) {
+		return hasTimeFor(timer, kind, 0);
+	}
+
+	/**
+	 * @param reserveMillis
+	 *            additional time that has to stay free, e.g. for work done
+	 *            after the search
+	 * @return if the next iteration of a kind is expected to finish before
+	 *         the deadline of the timer minus the safety margin and the
+	 *         reserve
+	 */
+	public synchronized boolean hasTimeFor(ElapsedCpuTimer timer, int kind, double reserveMillis) {
+		if (fixedIterations > 0) {
+			return tickIterations[kind]++ < fixedIterations;
+		}
+		long remaining = timer.remainingTimeMillis();
+		if (remaining > predictMillis(kind) + SAFETY_MARGIN_MILLIS + reserveMillis) {
+			return true;
+		}
+		if (remaining > SAFETY_MARGIN_MILLIS + reserveMillis) {
+			// we don't measure the iterations we skip, so let a too high
+			// estimate decay or it would never be corrected
+			meanNanos[kind] *= 1 - ALPHA;
+			deviationNanos[kind] *= 1 - ALPHA;
+		}
+		return false;
+	}
+
+	/**
+	 * Starts counting the iterations of a new tick (or of the creation of the
+	 * controller).
+	 */
+	public synchronized void beginTick() {
+		Arrays.fill(tickIterations, 0);
+	}
+
+	/**
+	 * Adds the measured cost of one iteration to the estimate.
+	 *
+	 * @param startNanos
+	 *            System.nanoTime() at the start of the iteration
+	 */
+	public synchronized void record(int kind, long startNanos) {
+		double nanos = System.nanoTime() - startNanos;
+		if (samples[kind] == 0) {
+			meanNanos[kind] = nanos;
+			deviationNanos[kind] = nanos / 2;
+		} else {
+			nanos = Math.min(nanos, meanNanos[kind] + OUTLIER_DEVIATIONS * deviationNanos[kind]);
+			deviationNanos[kind] += ALPHA * (Math.abs(nanos - meanNanos[kind]) - deviationNanos[kind]);
+			meanNanos[kind] += ALPHA * (nanos - meanNanos[kind]);
+		}
+		samples[kind]++;
+	}
+
+	/**
+	 * Counts a search that was sure about its action before the deadline,
+	 * the rest of the tick goes into the subtree of the action.
+	 */
+	public synchronized void countEarlyDecision(ElapsedCpuTimer timer) {
+		earlyDecisions++;
+		subtreeSearchMillis += Math.max(0, timer.remainingTimeMillis() - SAFETY_MARGIN_MILLIS);
+	}
+
+	public synchronized long getEarlyDecisions() {
+		return earlyDecisions;
+	}
+
+	/**
+	 * @return the time the searches spent on the subtree of an early decision
+	 */
+	public synchronized double getSubtreeSearchMillis() {
+		return subtreeSearchMillis;
+	}
+
+	/**
+	 * Checks at the end of act() if the deadline was kept.
+	 *
+	 * @return if the deadline was missed
+	 */
+	public synchronized boolean checkDeadline(ElapsedCpuTimer timer) {
+		ticks++;
+		long remaining = timer.remainingTimeMillis();
+		if (remaining >= 0) {
+			return false;
+		}
+		overruns++;
+		worstOverrunMillis = Math.max(worstOverrunMillis, -remaining);
+		return true;
+	}
+
+	public synchronized long getOverruns() {
+		return overruns;
+	}
+
+	public synchronized long getWorstOverrunMillis() {
+		return worstOverrunMillis;
+	}
+
+	public synchronized void printStatistics() {
+		StringBuilder sb = new StringBuilder("BUDGET::");
+		sb.append("ticks:").append(ticks).append("|overruns:").append(overruns).append("|worst:")
+				.append(worstOverrunMillis).append("ms|earlyDecisions:").append(earlyDecisions).append("|subtreeSearch:")
+				.append(Math.round(subtreeSearchMillis)).append("ms");
+		for (int i = 0; i < KIND_QTY; i++) {
+			sb.append("|").append(KIND_NAMES[i]).append(":").append(String.format("%.2f", meanNanos[i] / 1e6))
+					.append("+-").append(String.format("%.2f", deviationNanos[i] / 1e6)).append("ms/")
+					.append(samples[i]);
+		}
+		System.out.println(sb);
+	}
+}
@@ -3,6 +3,7 @@ package agents.misc.pathplanning;
 import java.util.ArrayList;
 import java.util.PriorityQueue;
 
+import agents.misc.AdjacencyMap;
 import bladeRunner.Agent;
 import ontology.Types;
 
@@ -12,6 +13,7 @@ import ontology.Types;
  * @author Benjamin Ellenberger
  *
  *         //Example use: 
+ *         PathPlanner pathPlanner = new PathPlanner(context.adjacencyMap);
  *         PathPlanner.updateStart(1, 1); // Not necessary, just if you need a way to that position only.
  *         PathPlanner.updateGoal(26,8);
  *
@@ -60,8 +62,12 @@ public class PathPlanner {
 	private boolean pathFound = false;
 
 	private int maximumSteps = -1;
-	
-	public PathPlanner() {
+
+	/** the obstacles of the game */
+	private final AdjacencyMap adjacencyMap;
+
+	public PathPlanner(AdjacencyMap adjacencyMap) {
+		this.adjacencyMap = adjacencyMap;
 		cleanHbfs();
 	}
 
@@ -109,11 +115,6 @@ public class PathPlanner {
 	}
 
 	public int getMaximumSteps() {
-		if (maximumSteps == -1) {
-			for (PathPlannerNode n : visited) {
-				maximumSteps = (int) ((maximumSteps < n.getDistanceFromGoal()) ? n.getDistanceFromGoal() : maximumSteps);
-			}
-		}
 		return maximumSteps;
 	}
 
@@ -156,7 +157,7 @@ public class PathPlanner {
 
 		// go through all the current node neighbors and calculate if one should
 		// be our next step
-		for (PathPlannerNode neighbor : current.getNeighbors()) {
+		for (PathPlannerNode neighbor : current.getNeighbors(adjacencyMap)) {
 
 			// calculate how long the path is if we chose this neighbor as the
 			// next step in the path
@@ -254,6 +255,11 @@ public class PathPlanner {
 			hasTerminated = performHbfs();
 			processedElementsQty++;
 		}
+		// the searches of MCTS only read the planner once it is published,
+		// see AgentContext.TickSnapshot
+		for (PathPlannerNode n : visited) {
+			maximumSteps = (int) ((maximumSteps < n.getDistanceFromGoal()) ? n.getDistanceFromGoal() : maximumSteps);
+		}
 //		System.out.println();
 //		displayPathState();
 //		System.out.println();
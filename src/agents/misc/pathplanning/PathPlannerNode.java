@@ -1,7 +1,7 @@
 package agents.misc.pathplanning;
 
 import java.util.ArrayList;
-import agents.misc.PersistentStorage;
+import agents.misc.AdjacencyMap;
 import bladeRunner.Agent;
 import ontology.Types;
 import ontology.Types.ACTIONS;
@@ -86,23 +86,23 @@ public class PathPlannerNode implements Comparable<PathPlannerNode> {
 		}
 	}
 
-	ArrayList<PathPlannerNode> getNeighbors() {
+	ArrayList<PathPlannerNode> getNeighbors(AdjacencyMap adjacencyMap) {
 		ArrayList<PathPlannerNode> neighbors = new ArrayList<>();
 
-		if (!PersistentStorage.adjacencyMap.isObstacle(x + 1, y)) {
+		if (!adjacencyMap.isObstacle(x + 1, y)) {
 			neighbors.add(new PathPlannerNode(Types.ACTIONS.ACTION_LEFT, this, depth + 1));
 		}
 
-		if (!PersistentStorage.adjacencyMap.isObstacle(x, y + 1)) {
+		if (!adjacencyMap.isObstacle(x, y + 1)) {
 			neighbors.add(new PathPlannerNode(Types.ACTIONS.ACTION_UP, this, depth + 1));
 
 		}
 
-		if (!PersistentStorage.adjacencyMap.isObstacle(x - 1, y)) {
+		if (!adjacencyMap.isObstacle(x - 1, y)) {
 			neighbors.add(new PathPlannerNode(Types.ACTIONS.ACTION_RIGHT, this, depth + 1));
 		}
 
-		if (!PersistentStorage.adjacencyMap.isObstacle(x, y - 1)) {
+		if (!adjacencyMap.isObstacle(x, y - 1)) {
 			neighbors.add(new PathPlannerNode(Types.ACTIONS.ACTION_DOWN, this, depth + 1));
 		}
 		return neighbors;
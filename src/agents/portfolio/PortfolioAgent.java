@@ -0,0 +1,260 @@
+package agents.portfolio;
+
+import java.util.Random;
+import java.util.Stack;
+
+import agents.GameAgent;
+import agents.hbfs.HBFSAgent;
+import agents.mcts.MCTSAgent;
+import agents.misc.AgentContext;
+import bladeRunner.Agent;
+import core.game.StateObservation;
+import ontology.Types;
+import ontology.Types.ACTIONS;
+import tools.ElapsedCpuTimer;
+
+/**
+ * Runs MCTS and HBFS side by side, each with its own search state, so a game
+ * the classifier got wrong doesn't lose the whole run. The engines take turns
+ * on the calling thread: the copies of a state share the collision effects of
+ * the game, some of which keep state of their own, so two engines can't
+ * advance their copies at the same time.
+ *
+ * The time of a tick is split by the progress of the engines: HBFS gets more
+ * while most of its expansions still reach new states, MCTS gets more while
+ * it values the actions more differently than usual (something is at stake).
+ *
+ * The arbiter then picks the action:
+ * <ul>
+ * <li>A plan of HBFS is played once it was checked to win from the real
+ * state, unless MCTS saw the next action kill the avatar.</li>
+ * <li>Otherwise we wait (ACTION_NIL) while HBFS still makes progress and
+ * waiting doesn't kill us, so HBFS plans from the state we are actually in.
+ * This only helps if the world stands still while we wait, so we stop waiting
+ * for good once it didn't.</li>
+ * <li>Otherwise MCTS plays, which makes the search of HBFS stale.</li>
+ * </ul>
+ */
+public class PortfolioAgent extends GameAgent {
+
+	/** smallest share of the time of an engine that is still running */
+	public static final double MIN_SHARE = 0.2;
+
+	/** weight of the last tick in the progress estimates */
+	public static final double ALPHA = 0.2;
+
+	/** progress of HBFS below which we stop waiting for it */
+	public static final double MIN_PROGRESS = 0.05;
+
+	public final MCTSAgent mctsAgent;
+	public final HBFSAgent hbfsAgent;
+
+	/**
+	 * The game we are playing.
+	 */
+	public final AgentContext context;
+
+	// progress signals in [0, 1]
+	private double hbfsProgress = 0.5;
+	private double mctsUrgency = 0.5;
+	private int lastVisited = 0;
+	private int lastRejects = 0;
+	/** moving average of the value spread at the root of MCTS */
+	private double meanSpread = -1;
+
+	/** if HBFS plans from a state we already left */
+	private boolean isHbfsStale = false;
+	/** if the plan of HBFS wins from the real state */
+	private boolean isPlanVerified = false;
+	/** if HBFS failed and only MCTS is running */
+	private boolean hasHbfsFailed = false;
+	private int waitedTicks = 0;
+	/** if the world changed while we were waiting */
+	private boolean doesWorldMove = false;
+
+	// statistics
+	private int hbfsActions = 0;
+	private int mctsActions = 0;
+	private int waitActions = 0;
+	private int vetoes = 0;
+	private int rejectedPlans = 0;
+
+	/**
+	 * Creates both engines, each with half of the initialization time.
+	 */
+	public PortfolioAgent(StateObservation so, ElapsedCpuTimer elapsedTimer, Random a_rnd, AgentContext context) {
+		this.context = context;
+		ElapsedCpuTimer mctsTimer = new ElapsedCpuTimer();
+		mctsTimer.setMaxTimeMillis(elapsedTimer.remainingTimeMillis() / 2);
+		mctsAgent = new MCTSAgent(so, mctsTimer, a_rnd, context);
+		hbfsAgent = new HBFSAgent(so, elapsedTimer, context);
+		// a full collection would take the time of MCTS as well
+		hbfsAgent.callsGarbageCollector = false;
+	}
+
+	@Override
+	public ACTIONS act(StateObservation stateObs, ElapsedCpuTimer elapsedTimer) {
+		long window = elapsedTimer.remainingTimeMillis();
+		boolean runHbfs = !hasHbfsFailed && !hbfsAgent.hasGivenUp();
+
+		// split the time by progress
+		double hbfsWeight = runHbfs ? MIN_SHARE + hbfsProgress : 0;
+		double mctsWeight = MIN_SHARE + mctsUrgency;
+		ElapsedCpuTimer hbfsTimer = new ElapsedCpuTimer();
+		hbfsTimer.setMaxTimeMillis((long) (window * hbfsWeight / (hbfsWeight + mctsWeight)));
+
+		// search with both engines, MCTS gets the rest of the tick
+		final boolean hbfsPlays = runHbfs && hbfsAgent.hasPlan();
+		ACTIONS hbfsAction = null;
+		if (runHbfs) {
+			hbfsAction = callHbfs(stateObs.copy(), hbfsTimer);
+		}
+		ACTIONS mctsAction = mctsAgent.act(stateObs, elapsedTimer);
+
+		updateProgress(runHbfs);
+
+		// arbitrate
+		if (waitedTicks > 0 && !isHbfsStale && hbfsAgent.controllerState == HBFSAgent.STATE_PLANNING
+				&& !hbfsAgent.isRootState(stateObs)) {
+			doesWorldMove = true;
+		}
+		if (hbfsPlays && hbfsAction != null && isPlanVerified) {
+			if (!mctsAgent.isLosingAction(hbfsAction)) {
+				hbfsActions++;
+				waitedTicks = 0;
+				mctsAgent.setPlayedAction(hbfsAction);
+				return hbfsAction;
+			}
+			// the rest of the plan is lost with the popped action
+			vetoes++;
+			isPlanVerified = false;
+			hbfsAgent.restart(stateObs.copy());
+		}
+
+		if (runHbfs && !doesWorldMove && hbfsAgent.controllerState == HBFSAgent.STATE_PLANNING
+				&& hbfsProgress > MIN_PROGRESS && !mctsAgent.isLosingAction(Types.ACTIONS.ACTION_NIL)) {
+			if (isHbfsStale) {
+				hbfsAgent.restart(stateObs.copy());
+				isHbfsStale = false;
+			}
+			waitedTicks++;
+			waitActions++;
+			mctsAgent.setPlayedAction(Types.ACTIONS.ACTION_NIL);
+			return Types.ACTIONS.ACTION_NIL;
+		}
+
+		waitedTicks = 0;
+		mctsActions++;
+		if (mctsAction != Types.ACTIONS.ACTION_NIL) {
+			isHbfsStale = true;
+		}
+		return mctsAction;
+	}
+
+	/**
+	 * The work of HBFS in this tick: check a new plan from the real state or
+	 * search on.
+	 */
+	private ACTIONS hbfsTurn(StateObservation so, ElapsedCpuTimer timer) {
+		if (hbfsAgent.hasPlan() && !isPlanVerified) {
+			int verdict = verifyPlan(so, hbfsAgent.actionSequence, timer);
+			if (verdict < 0) {
+				// try again in the next tick
+				return Types.ACTIONS.ACTION_NIL;
+			}
+			if (verdict == 0) {
+				rejectedPlans++;
+				hbfsAgent.restart(so);
+				isHbfsStale = false;
+			} else {
+				isPlanVerified = true;
+			}
+		}
+		if (!hbfsAgent.hasPlan()) {
+			isPlanVerified = false;
+		}
+		return hbfsAgent.act(so, timer);
+	}
+
+	/**
+	 * Plays the plan on a copy of the state.
+	 *
+	 * @return 1 if the plan wins, 0 if it doesn't, -1 if the time ran out
+	 */
+	private static int verifyPlan(StateObservation so, Stack<ACTIONS> plan, ElapsedCpuTimer timer) {
+		StateObservation soCopy = so.copy();
+		// the next action is on top of the stack
+		for (int i = plan.size() - 1; i >= 0 && !soCopy.isGameOver(); i--) {
+			if (timer.exceededMaxTime()) {
+				return -1;
+			}
+			soCopy.advance(plan.get(i));
+		}
+		return soCopy.isGameOver() && soCopy.getGameWinner() == Types.WINNER.PLAYER_WINS ? 1 : 0;
+	}
+
+	private ACTIONS callHbfs(StateObservation so, ElapsedCpuTimer timer) {
+		try {
+			return hbfsTurn(so, timer);
+		} catch (RuntimeException e) {
+			hbfsFailed(e);
+		}
+		return null;
+	}
+
+	private void hbfsFailed(Throwable cause) {
+		hasHbfsFailed = true;
+		if (Agent.isVerbose) {
+			System.out.println("PORTFOLIO::HBFS failed, MCTS plays alone: " + cause);
+		}
+	}
+
+	/**
+	 * HBFS progresses if its expansions reach new states instead of rejected
+	 * ones, MCTS is urgent if it values the actions more differently than
+	 * usual.
+	 */
+	private void updateProgress(boolean hasHbfsRun) {
+		if (hasHbfsRun) {
+			int visited = (hbfsAgent.visited == null) ? 0 : hbfsAgent.visited.size();
+			int rejects = hbfsAgent.stats_rejects;
+			int newStates = visited - lastVisited;
+			int newRejects = rejects - lastRejects;
+			if (hbfsAgent.hasPlan()) {
+				hbfsProgress += ALPHA * (1 - hbfsProgress);
+			} else if (newStates >= 0 && newRejects >= 0 && newStates + newRejects > 0) {
+				// (HBFS clears its sets now and then, skip those ticks)
+				hbfsProgress += ALPHA * ((double) newStates / (newStates + newRejects) - hbfsProgress);
+			}
+			lastVisited = visited;
+			lastRejects = rejects;
+		}
+		double spread = mctsAgent.getRootValueSpread();
+		if (meanSpread < 0) {
+			meanSpread = spread;
+		}
+		meanSpread += ALPHA * (spread - meanSpread);
+		double urgency = (spread + meanSpread > 0) ? spread / (spread + meanSpread) : 0;
+		mctsUrgency += ALPHA * (urgency - mctsUrgency);
+	}
+
+	@Override
+	public void shedMemory(double share) {
+		mctsAgent.shedMemory(share);
+		hbfsAgent.shedMemory(share);
+	}
+
+	@Override
+	public void clearMemory() {
+		mctsAgent.clearMemory();
+		hbfsAgent.clearMemory();
+	}
+
+	public void printStatistics() {
+		System.out.format(
+				"PORTFOLIO::hbfs:%d|mcts:%d|wait:%d|vetoes:%d|rejectedPlans:%d|hbfsProgress:%.2f|mctsUrgency:%.2f|worldMoves:%b|hbfsFailed:%b%n",
+				hbfsActions, mctsActions, waitActions, vetoes, rejectedPlans, hbfsProgress, mctsUrgency,
+				doesWorldMove, hasHbfsFailed);
+		mctsAgent.printStatistics();
+	}
+}
@@ -0,0 +1,146 @@
+package benchmarking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import misc.runners.RunConfig;
+import ontology.Types;
+import tools.ElapsedCpuTimer;
+import agents.misc.GridAnalyzer;
+import agents.misc.ObservationTools;
+import agents.misc.ObservationTools.DefaultAnalysis;
+import agents.misc.SpatialIndex;
+import core.ArcadeMachine;
+import core.game.StateObservation;
+import core.player.AbstractPlayer;
+
+/**
+ * Compares the single pass {@link GridAnalyzer} with
+ * {@link ObservationTools#analyze} on node transitions of real games, as they
+ * are scored by HBFS, and the trap heuristic on the {@link SpatialIndex} with
+ * the one on the sorted position lists. Reports the time per call and the
+ * results that differ.
+ */
+public class AnalyzeBenchmark {
+
+	public static final int TRANSITIONS = 200;
+	public static final int REPETITIONS = 40;
+
+	/**
+	 * Collects a random walk of the game in its constructor, the game itself
+	 * is not played.
+	 */
+	public static class Collector extends AbstractPlayer {
+		static StateObservation root;
+		static ArrayList<StateObservation> walk = new ArrayList<StateObservation>();
+
+		public Collector(StateObservation so, ElapsedCpuTimer elapsedTimer) {
+			Random rnd = new Random(42);
+			ArrayList<Types.ACTIONS> actions = so.getAvailableActions();
+			root = so.copy();
+			walk.clear();
+			StateObservation current = so.copy();
+			walk.add(current);
+			while (walk.size() <= TRANSITIONS && !current.isGameOver()) {
+				current = current.copy();
+				current.advance(actions.get(rnd.nextInt(actions.size())));
+				walk.add(current);
+			}
+		}
+
+		@Override
+		public Types.ACTIONS act(StateObservation stateObs, ElapsedCpuTimer elapsedTimer) {
+			return Types.ACTIONS.ACTION_ESCAPE;
+		}
+	}
+
+	public static void main(String[] args) {
+		String[] games = { RunConfig.DeterministicGames.SOKOBAN, RunConfig.DeterministicGames.BOULDERDASH,
+				RunConfig.DeterministicGames.ZELDA, RunConfig.DeterministicGames.PAINTER,
+				RunConfig.DeterministicGames.BRAINMAN, RunConfig.StochasticGames.ALIENS };
+
+		for (String game : games) {
+			ArcadeMachine.runOneGame(RunConfig.getGamePath(game), RunConfig.getGameLevelPath(game, "0"), false,
+					Collector.class.getName(), null, 42);
+			benchmark(game, Collector.root, Collector.walk);
+		}
+	}
+
+	private static void benchmark(String game, StateObservation root, ArrayList<StateObservation> walk) {
+		HashMap<Integer, Integer> rootObsList = ObservationTools.getObsList(root);
+		GridAnalyzer analyzer = new GridAnalyzer();
+		analyzer.setRoot(root);
+
+		// compare the results
+		int[] mismatches = new int[9];
+		for (int i = 1; i < walk.size(); i++) {
+			DefaultAnalysis a = ObservationTools.analyze(rootObsList, walk.get(i - 1), walk.get(i));
+			DefaultAnalysis b = analyzer.analyze(walk.get(i - 1), walk.get(i));
+			mismatches[0] += a.load != b.load ? 1 : 0;
+			mismatches[1] += a.tileCreations != b.tileCreations ? 1 : 0;
+			mismatches[2] += a.tileDestructions != b.tileDestructions ? 1 : 0;
+			mismatches[3] += a.tileTransforms != b.tileTransforms ? 1 : 0;
+			mismatches[4] += a.tileMovements != b.tileMovements ? 1 : 0;
+			mismatches[5] += a.relevantEvents != b.relevantEvents ? 1 : 0;
+			mismatches[6] += a.irrelevantEvents != b.irrelevantEvents ? 1 : 0;
+			mismatches[7] += a.trappedTiles != b.trappedTiles ? 1 : 0;
+			mismatches[8] += a.ResourceValue != b.ResourceValue ? 1 : 0;
+		}
+
+		// compare the trap heuristic with the sorted position lists
+		int trappedMismatches = 0;
+		int freeMismatches = 0;
+		for (int i = 0; i < walk.size(); i++) {
+			SpatialIndex index = ObservationTools.getSpatialIndex(walk.get(i));
+			trappedMismatches += ObservationTools.countTraps(index, false) != ObservationTools.getnTrappedByDistance(
+					walk.get(i), false) ? 1 : 0;
+			freeMismatches += ObservationTools.countTraps(index, true) != ObservationTools.getnTrappedByDistance(
+					walk.get(i), true) ? 1 : 0;
+		}
+
+		// warm up and time both
+		long referenceNanos = 0;
+		long analyzerNanos = 0;
+		long trappedNanos = 0;
+		long byDistanceNanos = 0;
+		for (int r = 0; r < REPETITIONS; r++) {
+			long byDistanceStart = System.nanoTime();
+			for (int i = 1; i < walk.size(); i++) {
+				ObservationTools.getnTrappedByDistance(walk.get(i), false);
+			}
+			long trappedStart = System.nanoTime();
+			for (int i = 1; i < walk.size(); i++) {
+				ObservationTools.getnTrapped(walk.get(i));
+			}
+			long start = System.nanoTime();
+			for (int i = 1; i < walk.size(); i++) {
+				ObservationTools.analyze(rootObsList, walk.get(i - 1), walk.get(i));
+			}
+			long middle = System.nanoTime();
+			for (int i = 1; i < walk.size(); i++) {
+				analyzer.analyze(walk.get(i - 1), walk.get(i));
+			}
+			long end = System.nanoTime();
+			if (r >= REPETITIONS / 2) {
+				byDistanceNanos += trappedStart - byDistanceStart;
+				trappedNanos += start - trappedStart;
+				referenceNanos += middle - start;
+				analyzerNanos += end - middle;
+			}
+		}
+		int calls = (walk.size() - 1) * (REPETITIONS - REPETITIONS / 2);
+		// both call getnTrapped, the diff itself is the rest
+		System.out.format(
+				"BENCHMARK::%-12s|grid:%2dx%2d|transitions:%4d|analyze:%8.1fus|GridAnalyzer:%8.1fus|getnTrapped:%8.1fus|diff speedup:%5.2f%n",
+				game, root.getObservationGrid().length, root.getObservationGrid()[0].length, walk.size() - 1,
+				referenceNanos / 1000.0 / calls, analyzerNanos / 1000.0 / calls, trappedNanos / 1000.0 / calls,
+				(double) (referenceNanos - trappedNanos) / (analyzerNanos - trappedNanos));
+		System.out.format(
+				"BENCHMARK::%-12s|mismatches load:%d creations:%d destructions:%d transforms:%d movements:%d relEvents:%d irrEvents:%d trapped:%d resources:%d%n",
+				game, mismatches[0], mismatches[1], mismatches[2], mismatches[3], mismatches[4], mismatches[5],
+				mismatches[6], mismatches[7], mismatches[8]);
+		System.out.format("BENCHMARK::%-12s|getnTrappedByDistance:%8.1fus|getnTrapped:%8.1fus|mismatches trapped:%d free:%d%n",
+				game, byDistanceNanos / 1000.0 / calls, trappedNanos / 1000.0 / calls, trappedMismatches, freeMismatches);
+	}
+}
@@ -2,19 +2,20 @@ package bladeRunner;
 
 import java.awt.Graphics2D;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
 
 import tools.Vector2d;
 import agents.GameAgent;
 import agents.hbfs.HBFSAgent;
 import agents.mcts.MCTSAgent;
-import agents.misc.AdjacencyMap;
+import agents.portfolio.PortfolioAgent;
+import agents.misc.AgentContext;
 import agents.misc.DrawingTools;
 import agents.misc.GameClassifier;
 import agents.misc.ITypeAttractivity;
+import agents.misc.KnowledgeStore;
+import agents.misc.MemoryGovernor;
+import agents.misc.RunSettings;
 import agents.misc.PersistentStorage;
-import agents.misc.RewardMap;
 import agents.misc.GameClassifier.GameType;
 import core.game.Observation;
 import agents.misc.pathplanning.PathPlanner;
@@ -34,7 +35,7 @@ public class Agent extends AbstractPlayer {
 	 * The type of agent we intend to run.
 	 */
 	public enum AgentType {
-		MCTS, BFS, MIXED
+		MCTS, BFS, MIXED, PORTFOLIO
 	}
 	
 	ArrayList<Observation>[][] grid;
@@ -42,23 +43,51 @@ public class Agent extends AbstractPlayer {
 	
 	public static final boolean isVerbose = true;
 
+	/**
+	 * Number of ticks between the reports of the feature cache.
+	 */
+	public static final int STATISTICS_FREQUENCY = 500;
+
+	/**
+	 * If MCTS and HBFS run side by side in every game instead of trusting the
+	 * game classifier. Turn it on with -Dbladerunner.portfolio=true.
+	 */
+	public static boolean PORTFOLIO = Boolean.getBoolean("bladerunner.portfolio");
+
 	/**
 	 * The agent type we force the agent into.
 	 */
 	public AgentType forcedAgentType = AgentType.MIXED;
 
+	/**
+	 * The agent type we run in this game.
+	 */
+	private AgentType agentType;
+
 	/**
 	 * Agents
 	 */
-	private static MCTSAgent mctsAgent = null;
-	private static HBFSAgent hbfsAgent = null;
-	private static GameAgent currentAgent = null;
+	private MCTSAgent mctsAgent = null;
+	private HBFSAgent hbfsAgent = null;
+	private PortfolioAgent portfolioAgent = null;
+	private GameAgent currentAgent = null;
+
+	/**
+	 * The game we are playing, shared with the sub agents.
+	 */
+	private AgentContext context;
+
+	/**
+	 * Lets the agent shed memory before the heap runs out. One for all games,
+	 * they share the heap.
+	 */
+	private static final MemoryGovernor memoryGovernor = new MemoryGovernor();
 
 	/**
 	 * Agent switching properties
 	 */
 	private GameAgent previousAgent = null;
-	private static int agentSwitchTicksRemaining = 0;
+	private int agentSwitchTicksRemaining = 0;
 
 	/**
 	 * Public constructor with state observation and time due.
@@ -71,47 +100,32 @@ public class Agent extends AbstractPlayer {
 	public Agent(StateObservation so, ElapsedCpuTimer elapsedTimer) {
 		// #################
 		// PERSISTENT STORAGE
-		// Get the actions in a static array.
-		ArrayList<Types.ACTIONS> act = so.getAvailableActions();
-		PersistentStorage.actions = new Types.ACTIONS[act.size()];
-		for (int i = 0; i < PersistentStorage.actions.length; ++i) {
-			PersistentStorage.actions[i] = act.get(i);
-		}
-			
-
-		// initialize exploration reward map with 1
-		PersistentStorage.rewMap = new RewardMap(so, 0.3);
-		
-		// set the MCTS_depth back
-		PersistentStorage.MCTS_DEPTH_RUN = PersistentStorage.MCTS_DEPTH_FIX;
-		
-		PersistentStorage.startingReward = 0;
-
-		
-		// initialize the adjacency map with the current state observation
-		PersistentStorage.adjacencyMap = new AdjacencyMap(so);
-
-		
-		PersistentStorage.previousAvatarRessources = new HashMap<>();
-
-		// Classify game
-		GameClassifier.determineGameType(so);
-
 		// save some information over a set of games
-		PersistentStorage.GameCounter++;
+		// the seed, the iteration mode and the carry-over slot of the runner
+		RunSettings settings = RunSettings.current();
+		AgentContext lastGame = PersistentStorage.getLastGame(settings.slot);
+		int gameIndex = (lastGame != null) ? lastGame.gameIndex + 1 : 0;
+
+		// look up what we learned about this game in previous runs
+		int gameKey = KnowledgeStore.getGameKey(so);
+		KnowledgeStore.GameKnowledge knowledge = KnowledgeStore.lookup(gameKey);
 		
-		if((PersistentStorage.GameCounter-1) % 5 == 0){
+		ITypeAttractivity iTypeAttractivity;
+		if(gameIndex % 5 == 0){
 			//initialize new iTypeAttractivities otherwise keep them
-			int numActions = act.size();
+			int numActions = so.getAvailableActions().size();
 			// initialize ItypeAttracivity object for starting situation
-			PersistentStorage.iTypeAttractivity = new ITypeAttractivity(so,numActions);
-			PersistentStorage.lastGameState = null;
-			PersistentStorage.lastWinLoseExpectation = 0;
+			iTypeAttractivity = new ITypeAttractivity(so,numActions);
+			if (knowledge != null) {
+				// warm start with the attractivities learned before
+				knowledge.applyTo(iTypeAttractivity);
+			}
 		}
 		else {
+			iTypeAttractivity = lastGame.iTypeAttractivity;
 			//Check the last game state for reasons of death or win 
-			if(PersistentStorage.lastGameState != null){
-				StateObservation lastState = PersistentStorage.lastGameState;
+			if(lastGame.lastState != null){
+				StateObservation lastState = lastGame.lastState;
 
 				Vector2d avPos = lastState.getAvatarPosition();
 				int blockSize = lastState.getBlockSize();
@@ -125,9 +139,9 @@ public class Agent extends AbstractPlayer {
 							// only look at the closest rewarding/punishing npc
 							Vector2d npcPos = npcs.get(0).position;
 							//check is NPS was adjacent
-							if(Math.sqrt(Math.pow(npcPos.x -avPos.x,2)+Math.pow(npcPos.y -avPos.y,2))-2 < Math.sqrt(2*blockSize*blockSize) && PersistentStorage.iTypeAttractivity.get(npcs.get(0).itype) < -0.5 && PersistentStorage.lastWinLoseExpectation < 0){
+							if(Math.sqrt(Math.pow(npcPos.x -avPos.x,2)+Math.pow(npcPos.y -avPos.y,2))-2 < Math.sqrt(2*blockSize*blockSize) && iTypeAttractivity.get(npcs.get(0).itype) < -0.5 && lastGame.lastWinLoseExpectation < 0){
 								// I label the itype attractivy of those enemies as -2, since we died from them.
-								PersistentStorage.iTypeAttractivity.put(npcs.get(0).itype, -2.0);
+								iTypeAttractivity.put(npcs.get(0).itype, -2.0);
 							}
 						}
 					}
@@ -135,16 +149,98 @@ public class Agent extends AbstractPlayer {
 			}
 		}
 
+		// #################
+		// GAME CONTEXT
+		// actions, reward/adjacency/diffusion maps and search parameters of
+		// this game
+		context = new AgentContext(so, iTypeAttractivity, settings, gameIndex);
+		PersistentStorage.setLastGame(settings.slot, context);
+		context.timeBudget.beginTick();
+
+		// Classify game, unless we know it already
+		GameType gameType;
+		if (knowledge != null && knowledge.gameType != GameType.NOT_DETERMINED) {
+			gameType = GameClassifier.useGameType(knowledge.gameType, context);
+		} else {
+			gameType = GameClassifier.determineGameType(so, context);
+		}
+
+		// write what we learned in the last game and keep this game in mind
+		KnowledgeStore.save(settings.slot);
+		KnowledgeStore.remember(settings.slot, gameKey, gameType, iTypeAttractivity);
+
 		// use time that is left to build a tree or do BFS
-		if ((GameClassifier.getGameType() == GameType.MOVING || forcedAgentType == AgentType.MCTS) && forcedAgentType != AgentType.BFS) {
+		agentType = selectAgentType(gameType);
+		try {
+			createEngines(so, elapsedTimer);
+		} catch (OutOfMemoryError e) {
+			// the governor only runs in act(), MCTS starts without a search
+			memoryGovernor.onOutOfMemory(null);
+			hbfsAgent = null;
+			portfolioAgent = null;
+			agentType = AgentType.MCTS;
+			ElapsedCpuTimer noTime = new ElapsedCpuTimer();
+			noTime.setMaxTimeMillis(0);
+			mctsAgent = new MCTSAgent(so, noTime, context.random, context);
+			currentAgent = mctsAgent;
+		}
+		// the engines took what they wanted of the probe states
+		context.probeStates.clear();
+	}
+
+	/**
+	 * Creates the engines of the agent type, they search in the time that is
+	 * left.
+	 */
+	private void createEngines(StateObservation so, ElapsedCpuTimer elapsedTimer) {
+		if (agentType == AgentType.MCTS) {
 			// Create the player.
-			mctsAgent = new MCTSAgent(so, elapsedTimer, new Random());
+			mctsAgent = new MCTSAgent(so, elapsedTimer, context.random, context);
 			currentAgent = mctsAgent;
+		} else if (agentType == AgentType.BFS) {
+			hbfsAgent = new HBFSAgent(so, elapsedTimer, context);
+			currentAgent = hbfsAgent;
+		} else if (agentType == AgentType.PORTFOLIO) {
+			// both engines in every tick, an arbiter picks the action
+			portfolioAgent = new PortfolioAgent(so, elapsedTimer, context.random, context);
+			currentAgent = portfolioAgent;
 		} else {
-			hbfsAgent = new HBFSAgent(so, elapsedTimer);
+			// split the time, HBFS plays until it gives up, MCTS takes over
+			ElapsedCpuTimer hbfsTimer = new ElapsedCpuTimer();
+			hbfsTimer.setMaxTimeMillis(elapsedTimer.remainingTimeMillis() / 2);
+			hbfsAgent = new HBFSAgent(so, hbfsTimer, context);
+			mctsAgent = new MCTSAgent(so, elapsedTimer, context.random, context);
 			currentAgent = hbfsAgent;
 		}
+	}
 
+	/**
+	 * Picks the search engine for the game: HBFS plans open loop and only
+	 * pays off if the game is deterministic, MCTS copes with everything else.
+	 * Deterministic games with movement get both, unless they are puzzles
+	 * (movables but no NPCs), which HBFS solves on its own.
+	 */
+	private AgentType selectAgentType(GameType gameType) {
+		if (forcedAgentType != AgentType.MIXED) {
+			return forcedAgentType;
+		}
+		if (PORTFOLIO) {
+			return AgentType.PORTFOLIO;
+		}
+		GameClassifier.GameFeatures features = context.gameFeatures;
+		if (features != null && features.puzzle) {
+			return AgentType.BFS;
+		}
+		switch (gameType) {
+		case STATIC:
+			return AgentType.BFS;
+		case DETERMINISTIC_MOVING:
+			return AgentType.MIXED;
+		case MOVING:
+		case NOT_DETERMINED:
+		default:
+			return AgentType.MCTS;
+		}
 	}
 
 	/**
@@ -159,15 +255,49 @@ public class Agent extends AbstractPlayer {
 	 */
 	public Types.ACTIONS act(StateObservation stateObs, ElapsedCpuTimer elapsedTimer) {
 		Types.ACTIONS action = Types.ACTIONS.ACTION_NIL;
+		context.timeBudget.beginTick();
 		
 		//this is just for the drawing. comment it out, if you don't need it
 		// DrawingTools.updateObservation(stateObs);
 		
+		// in mixed mode MCTS takes over once HBFS gives up
+		if (agentType == AgentType.MIXED && currentAgent == hbfsAgent && hbfsAgent.hasGivenUp()) {
+			if (isVerbose) {
+				System.out.println("AGENT::HBFS gave up, switching to MCTS.");
+			}
+			mctsAgent.init(stateObs);
+			currentAgent = mctsAgent;
+			hbfsAgent = null; // let the garbage collector take the pipe
+		}
+
+		memoryGovernor.govern(currentAgent);
+
 		try {
 			action = currentAgent.act(stateObs, elapsedTimer);
 		} catch (OutOfMemoryError e) {
-			currentAgent.clearMemory();
-			// action = currentAgent.act(stateObs, elapsedTimer);
+			// the governor was too late
+			memoryGovernor.onOutOfMemory(currentAgent);
+		}
+
+		if (context.timeBudget.checkDeadline(elapsedTimer) && isVerbose) {
+			System.out.println("AGENT::Missed the deadline by " + (-elapsedTimer.remainingTimeMillis()) + "ms at tick "
+					+ stateObs.getGameTick() + ".");
+		}
+
+		if (isVerbose && stateObs.getGameTick() % STATISTICS_FREQUENCY == 0) {
+			context.featureStatistics.printStatistics();
+			context.timeBudget.printStatistics();
+			memoryGovernor.printStatistics();
+			if (mctsAgent != null) {
+				mctsAgent.printStatistics();
+			}
+			if (portfolioAgent != null) {
+				portfolioAgent.printStatistics();
+			}
+			if (hbfsAgent != null && HBFSAgent.TRACK_HASHING) {
+				hbfsAgent.saveHashlist();
+				hbfsAgent.displayHashingDiagnostics();
+			}
 		}
 
 		// if agent is switched to another one
@@ -220,7 +350,7 @@ public class Agent extends AbstractPlayer {
 	 * @param ticks
 	 *            The number of ticks the agent should be switched.
 	 */
-	public static void switchAgentForTicks(AgentType type, int ticks) {
+	public void switchAgentForTicks(AgentType type, int ticks) {
 		agentSwitchTicksRemaining = ticks;
 		switch (type) {
 		case BFS:
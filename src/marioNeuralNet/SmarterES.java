@@ -50,8 +50,8 @@ public class SmarterES implements EA {
             SmarterMLPAgent sm = (SmarterMLPAgent)population[i];
             //chose two parents from the elite class to use for recombination (alternatively, choose elites in order)
             //
-            int parent1Index = (int) (Math.random() * elite);
-            int parent2Index = (int) (Math.random() * elite);
+            int parent1Index = SmarterMLP.random.nextInt(elite);
+            int parent2Index = SmarterMLP.random.nextInt(elite);
             sm.recombine((SmarterMLPAgent)population[parent1Index],(SmarterMLPAgent)population[parent2Index]);
             sm.mutate(mutationMagnitude);
             //evaluate(i); ~EVALUATE ME FROM GVG RUNNER~
@@ -72,7 +72,7 @@ public class SmarterES implements EA {
      */
     public void shuffle() {
         for (int i = 0; i < population.length; i++) {
-            swapPopAndFitness(i, (int) (Math.random() * population.length));
+            swapPopAndFitness(i, SmarterMLP.random.nextInt(population.length));
         }
     }
 
@@ -4,6 +4,10 @@ import java.util.Random;
 
 public class SmarterMLP implements FA<double[], double[]>, Evolvable {
 
+	/**
+	 * Shared by the networks and the evolution strategy, reseed it for
+	 * reproducible training runs.
+	 */
 	public static final Random random = new Random();
     private double[][] firstConnectionLayer;
     private double[][] secondConnectionLayer;
@@ -3,6 +3,7 @@ package marioNeuralNet;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import agents.misc.ObservationFeatures;
 import core.game.Observation;
 import core.game.StateObservation;
 import core.player.AbstractPlayer;
@@ -148,17 +149,18 @@ public class SmarterMLPAgent extends AbstractPlayer implements Evolvable {
 	@Override
 	public ACTIONS act(StateObservation stateObs, ElapsedCpuTimer elapsedTimer) {
 		//construct our input layer from each of our input conditions
+		ObservationFeatures features = new ObservationFeatures(stateObs, null);
     	double[] inputs = new double[] {
 			stateObs.getAvatarPosition().x,
 			stateObs.getAvatarPosition().y,
 			stateObs.getAvatarSpeed(),
 			getResourceSum(stateObs),
-			nearestDistance(stateObs.getNPCPositions()),
-			nearestDistance(stateObs.getMovablePositions()),
-			nearestDistance(stateObs.getResourcesPositions()),
-			nearestDistance(stateObs.getPortalsPositions()),
-			nearestDistance(stateObs.getImmovablePositions()),
-			nearestDistance(stateObs.getFromAvatarSpritesPositions()),
+			nearestDistance(features.getNPCPositions()),
+			nearestDistance(features.getMovablePositions()),
+			nearestDistance(features.getResourcesPositions()),
+			nearestDistance(features.getPortalsPositions()),
+			nearestDistance(features.getImmovablePositions()),
+			nearestDistance(features.getFromAvatarSpritesPositions()),
 			canMove("left",stateObs) ? 1 : 0,
 			canMove("right",stateObs) ? 1 : 0,
 			canMove("up",stateObs) ? 1 : 0,
@@ -22,9 +22,12 @@ public class marioNeuralNetRunner {
 //		runGamesVisually(config);
 	}
 	
-	//#outputs for FROGS: 4
-    static Evolvable initial = new SmarterMLPAgent(4);
-    static SmarterES es = new SmarterES(initial, 50, 25); //50 total population, with 25 parents = 25 children (even split)
+	//seeds of the games, reseeded with the seed of the run config
+	static Random random = new Random();
+
+	//#outputs for FROGS: 4, created once the random generators are seeded
+    static Evolvable initial;
+    static SmarterES es;
 	
 	/**
 	 * train the NN for the specified #generations, then do a visual run with the results
@@ -39,6 +42,14 @@ public class marioNeuralNetRunner {
 		
 		config.setController(NNProxyAgent.class.getCanonicalName());
 		config.setSaveActions(true);
+		//config.setSeed(42L);
+		if (config.getSeed() != null) {
+			// the same population and games in every run
+			SmarterMLP.random.setSeed(config.getSeed());
+			random.setSeed(config.getSeed());
+		}
+		initial = new SmarterMLPAgent(4);
+		es = new SmarterES(initial, 50, 25); //50 total population, with 25 parents = 25 children (even split)
 		
 		//~TRAIN~
         float mutationMagnitude = .3f; //starting mutation magnitude, if using scaling mutation
@@ -81,7 +92,7 @@ public class marioNeuralNetRunner {
 							.getGameLevelPath(gameLevelPair.game, level), true,
 							config.getController(),
 							(config.isSaveActions()) ? actionsFile : null,
-							new Random().nextInt());
+							random.nextInt());
 				}
 			}
 		}
@@ -105,7 +116,7 @@ public class marioNeuralNetRunner {
 							.getGameLevelPath(gameLevelPair.game, level), false,
 							config.getController(),
 							(config.isSaveActions()) ? actionsFile : null,
-							new Random().nextInt());
+							random.nextInt());
 				}
 			}
 		} 
@@ -147,7 +158,7 @@ public class marioNeuralNetRunner {
 							.getGamePath(gameLevelPair.game), RunConfig
 							.getGameLevelPath(gameLevelPair.game, level),
 							(config.isSaveActions()) ? actionsFile : null,
-							new Random().nextInt());
+							random.nextInt());
 				}
 			}
 
@@ -57,6 +57,17 @@ public class AgentRunner {
 //		config.setSaveActions(false);
 		config.setCalculateStatistics(true);
 
+		// #############
+		// == Check that seeded runs replay the same actions
+		// (-Dbladerunner.verify=true), fails if they don't
+		if (GameRunner.VERIFY) {
+			int differences = GameRunner.verifyReplays(config);
+			if (differences > 0) {
+				throw new IllegalStateException(differences + " levels were played differently with the same seed.");
+			}
+			return;
+		}
+
 		// #############
 		// UNCOMMENT THE APPROPRIATE PARTS TO...
 
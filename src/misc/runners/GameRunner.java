@@ -1,9 +1,16 @@
 package misc.runners;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
 
+import agents.misc.PersistentStorage;
+import agents.misc.RunSettings;
 import benchmarking.GameStats;
 import bladeRunner.Agent;
 import core.ArcadeMachine;
@@ -14,6 +21,18 @@ public class GameRunner {
 
 	public static Random random = new Random();
 
+	/**
+	 * Search iterations per tick while verifying replays, unless they are set
+	 * with -Dbladerunner.iterations. The clock would let the searches differ.
+	 */
+	public static int VERIFY_ITERATIONS = 50;
+
+	/**
+	 * If the runners verify that seeded runs replay the same actions instead
+	 * of playing the games. Turn it on with -Dbladerunner.verify=true.
+	 */
+	public static boolean VERIFY = Boolean.getBoolean("bladerunner.verify");
+
 	// Available controllers from the Samples:
 	public static String sampleRandomController = "controllers.sampleRandom.Agent";
 	public static String sampleOneStepController = "controllers.sampleonesteplookahead.Agent";
@@ -46,6 +65,7 @@ public class GameRunner {
 	 *            The run configuration containing the game details.
 	 */
 	public static void runGamesVisually(RunConfig config) {
+		seedRandom(config);
 		// for each game
 		for (GameLevelPair<String, String[]> gameLevelPair : config
 				.getGameLevels()) {
@@ -66,7 +86,7 @@ public class GameRunner {
 							.getGameLevelPath(gameLevelPair.game, level), true,
 							config.getController(),
 							(config.isSaveActions()) ? actionsFile : null,
-							random.nextInt());
+							nextGameSeed(config));
 					if (config.isCalculateStatistics()) {
 						processGameStatistics(RunConfig
 								.getGamePath(gameLevelPair.game));
@@ -90,6 +110,7 @@ public class GameRunner {
 	 *            The run configuration containing the game details.
 	 */
 	public static void runGames(RunConfig config) {
+		seedRandom(config);
 
 		if (config.isCalculateStatistics()) {
 			// for each game
@@ -114,7 +135,7 @@ public class GameRunner {
 								.getGameLevelPath(gameLevelPair.game, level),
 								false, config.getController(), (config
 										.isSaveActions()) ? actionsFile : null,
-								random.nextInt());
+								nextGameSeed(config));
 						processGameStatistics(RunConfig
 								.getGamePath(gameLevelPair.game));
 						
@@ -146,6 +167,7 @@ public class GameRunner {
 	 *            The run configuration containing the game details.
 	 */
 	public static void playGamesYourself(RunConfig config) {
+		seedRandom(config);
 		// for all games
 		for (GameLevelPair<String, String[]> gameLevelPair : config
 				.getGameLevels()) {
@@ -164,11 +186,109 @@ public class GameRunner {
 							.getGamePath(gameLevelPair.game), RunConfig
 							.getGameLevelPath(gameLevelPair.game, level),
 							(config.isSaveActions()) ? actionsFile : null,
-							random.nextInt());
+							nextGameSeed(config));
+				}
+			}
+
+		}
+	}
+
+	/**
+	 * Plays every configured level twice with the same seeds and checks that
+	 * the controller took the same actions both times. Run it before and
+	 * after a change that should only make the agent faster: if the actions
+	 * of the same build differ already, comparing the two builds tells
+	 * nothing.
+	 *
+	 * The searches run a fixed number of iterations per tick. The forward models of the framework draw from unseeded random
+	 * generators, so only deterministic games can be reproduced exactly.
+	 *
+	 * @param config
+	 *            The run configuration containing the game details, a random
+	 *            seed is used if it has none.
+	 * @return the number of levels that were played differently
+	 */
+	public static int verifyReplays(RunConfig config) {
+		random = new Random((config.getSeed() != null) ? config.getSeed() : new Random().nextLong());
+		RunSettings settings = RunSettings.current();
+		if (settings.fixedIterations == 0) {
+			RunSettings.use(settings.withFixedIterations(VERIFY_ITERATIONS));
+		}
+
+		int differences = 0;
+		try {
+			for (GameLevelPair<String, String[]> gameLevelPair : config.getGameLevels()) {
+				for (String level : gameLevelPair.level) {
+					int seed = random.nextInt();
+					List<String> first = playRecorded(config, gameLevelPair.game, level, seed);
+					List<String> second = playRecorded(config, gameLevelPair.game, level, seed);
+
+					int tick = 0;
+					while (tick < first.size() && tick < second.size() && first.get(tick).equals(second.get(tick))) {
+						tick++;
+					}
+					if (tick == first.size() && tick == second.size()) {
+						System.out.println("VERIFY::" + gameLevelPair.game + " level " + level + " seed " + seed
+								+ ": the same " + tick + " actions.");
+					} else {
+						differences++;
+						System.out.println("VERIFY::" + gameLevelPair.game + " level " + level + " seed " + seed
+								+ ": the actions differ from tick " + tick + " on.");
+					}
 				}
 			}
+		} finally {
+			RunSettings.use(settings);
+		}
+		return differences;
+	}
+
+	/**
+	 * Plays a level from scratch with the agent seeded by the game seed.
+	 *
+	 * @return the actions taken
+	 */
+	private static List<String> playRecorded(RunConfig config, String game, String level, int seed) {
+		RunSettings settings = RunSettings.current();
+		PersistentStorage.reset(settings.slot);
+		RunSettings.use(settings.withSeed(Long.valueOf(seed)));
+		File actionsFile = null;
+		try {
+			actionsFile = File.createTempFile("actions_game_" + game + "_lvl_" + level + "_", ".txt");
+			ArcadeMachine.runOneGame(RunConfig.getGamePath(game), RunConfig.getGameLevelPath(game, level), false,
+					config.getController(), actionsFile.getPath(), seed);
+			List<String> lines = Files.readAllLines(actionsFile.toPath(), Charset.defaultCharset());
+			// the first line is the seed
+			return lines.subList(Math.min(1, lines.size()), lines.size());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (actionsFile != null) {
+				actionsFile.delete();
+			}
+		}
+	}
 
+	/**
+	 * Starts the sequence of game seeds from the seed of the run
+	 * configuration, if it has one.
+	 */
+	private static void seedRandom(RunConfig config) {
+		if (config.getSeed() != null) {
+			random = new Random(config.getSeed());
+		}
+	}
+
+	/**
+	 * @return the seed of the next game. If the run configuration has a seed,
+	 *         the agent is seeded with the game seed as well.
+	 */
+	private static int nextGameSeed(RunConfig config) {
+		int seed = random.nextInt();
+		if (config.getSeed() != null) {
+			RunSettings.use(RunSettings.current().withSeed(Long.valueOf(seed)));
 		}
+		return seed;
 	}
 
 	/**
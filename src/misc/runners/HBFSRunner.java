@@ -1,6 +1,5 @@
 package misc.runners;
 
-import agents.hbfs.HBFSAgent;
 import benchmarking.GameStats;
 
 public class HBFSRunner {
@@ -72,8 +71,6 @@ public class HBFSRunner {
 		// Controls: (Up,Down,Left,Right,Space)
 		// GameRunner.playGamesYourself(RunConfig.getPlayAllGamesConfig());
 		
-		HBFSAgent.saveHashlist();
-		HBFSAgent.displayHashingDiagnostics();
 		double avgRatio = 0;
 		for (String gameName : GameRunner.gameStatistics.keySet()) {
 			GameStats gs = GameRunner.gameStatistics.get(gameName);
@@ -985,6 +985,20 @@ public class RunConfig {
 	 */
 	private boolean calculateStatistics = false;
 
+	/**
+	 * The seed of the games and the controller, null for a random seed per
+	 * run. With a seed the runs can be reproduced.
+	 */
+	private Long seed = null;
+
+	public Long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
 	public boolean isCalculateStatistics() {
 		return calculateStatistics;
 	}